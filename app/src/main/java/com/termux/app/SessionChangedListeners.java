@@ -0,0 +1,131 @@
+package com.termux.app;
+
+import android.view.Choreographer;
+
+import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSession.SessionChangedCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The listeners to changes of the sessions in {@link TermuxService}, so that several clients such as
+ * {@link TermuxActivity}, {@link TermuxVRActivity} and {@link TermuxSocketServer} can observe the sessions at the same
+ * time. Each listener is registered with a dispatch policy deciding which changes it receives and when, so that a
+ * listener not needing every screen update does not pay for it.
+ * <p/>
+ * Only used on the main thread.
+ */
+final class SessionChangedListeners implements SessionChangedCallback {
+
+    /** Receive all changes as they happen. */
+    static final int DISPATCH_IMMEDIATE = 0;
+    /**
+     * Receive at most one {@link SessionChangedCallback#onTextChanged(TerminalSession)} per session and display frame,
+     * and other changes as they happen.
+     */
+    static final int DISPATCH_COALESCED = 1;
+    /** Only receive title changes and finished sessions, as when showing a list of the sessions. */
+    static final int DISPATCH_TITLES_ONLY = 2;
+
+    private static final class Listener {
+        final SessionChangedCallback mCallback;
+        final int mPolicy;
+        /** For {@link #DISPATCH_COALESCED}, the sessions with text changes not yet delivered. */
+        final List<TerminalSession> mChangedSessions = new ArrayList<>();
+
+        Listener(SessionChangedCallback callback, int policy) {
+            mCallback = callback;
+            mPolicy = policy;
+        }
+    }
+
+    /** Replaced on changes instead of modified, so that listeners may add or remove listeners while being called. */
+    private Listener[] mListeners = new Listener[0];
+
+    private boolean mFrameCallbackPosted;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameCallbackPosted = false;
+            for (Listener listener : mListeners) {
+                if (listener.mChangedSessions.isEmpty()) continue;
+                TerminalSession[] changedSessions = listener.mChangedSessions.toArray(new TerminalSession[listener.mChangedSessions.size()]);
+                listener.mChangedSessions.clear();
+                for (TerminalSession session : changedSessions)
+                    listener.mCallback.onTextChanged(session);
+            }
+        }
+    };
+
+    /** Add a listener, or change the dispatch policy of an already added one. */
+    void add(SessionChangedCallback callback, int policy) {
+        remove(callback);
+        Listener[] listeners = Arrays.copyOf(mListeners, mListeners.length + 1);
+        listeners[mListeners.length] = new Listener(callback, policy);
+        mListeners = listeners;
+    }
+
+    void remove(SessionChangedCallback callback) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i].mCallback == callback) {
+                Listener[] listeners = new Listener[mListeners.length - 1];
+                System.arraycopy(mListeners, 0, listeners, 0, i);
+                System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+                mListeners = listeners;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onTextChanged(TerminalSession changedSession) {
+        for (Listener listener : mListeners) {
+            switch (listener.mPolicy) {
+                case DISPATCH_IMMEDIATE:
+                    listener.mCallback.onTextChanged(changedSession);
+                    break;
+                case DISPATCH_COALESCED:
+                    if (!listener.mChangedSessions.contains(changedSession)) listener.mChangedSessions.add(changedSession);
+                    if (!mFrameCallbackPosted) {
+                        mFrameCallbackPosted = true;
+                        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void onTitleChanged(TerminalSession changedSession) {
+        for (Listener listener : mListeners)
+            listener.mCallback.onTitleChanged(changedSession);
+    }
+
+    @Override
+    public void onSessionFinished(TerminalSession finishedSession) {
+        for (Listener listener : mListeners)
+            listener.mCallback.onSessionFinished(finishedSession);
+    }
+
+    @Override
+    public void onClipboardText(TerminalSession session, String text) {
+        for (Listener listener : mListeners)
+            if (listener.mPolicy != DISPATCH_TITLES_ONLY) listener.mCallback.onClipboardText(session, text);
+    }
+
+    @Override
+    public void onBell(TerminalSession session) {
+        for (Listener listener : mListeners)
+            if (listener.mPolicy != DISPATCH_TITLES_ONLY) listener.mCallback.onBell(session);
+    }
+
+    @Override
+    public void onColorsChanged(TerminalSession session) {
+        for (Listener listener : mListeners)
+            if (listener.mPolicy != DISPATCH_TITLES_ONLY) listener.mCallback.onColorsChanged(session);
+    }
+
+}
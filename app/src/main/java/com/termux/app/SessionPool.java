@@ -0,0 +1,140 @@
+package com.termux.app;
+
+import android.os.Handler;
+
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSession.SessionChangedCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sessions started ahead of time with the default shell, working directory and size, so that a new default session from
+ * {@link TermuxService#createTermSession(String, String[], String, boolean)} can be handed out with its shell already
+ * started instead of waiting for the spawn and the login scripts. Taken sessions are replaced in the background, one
+ * at a time so that the spawns do not compete with the session just handed out.
+ * <p/>
+ * The pooled sessions are idle shells the user has not asked for, so they are killed on memory pressure, see
+ * {@link #drain()}, and only refilled when the next default session is created.
+ * <p/>
+ * Disabled unless given a capacity with {@link #setCapacity(int)}. Only used on the main thread.
+ */
+final class SessionPool implements SessionChangedCallback {
+
+    /** How long after a default session has been created that a pooled session is started to replace it. */
+    private static final int FILL_DELAY_MILLIS = 1000;
+
+    private final TermuxService mService;
+    private final Handler mHandler;
+
+    /** The started sessions not yet handed out, oldest first. */
+    private final List<TerminalSession> mSessions = new ArrayList<>();
+    private int mCapacity;
+
+    /**
+     * The last default session handed out, whose size is used for new pooled sessions once it has been shown, since
+     * that is the size a view gives the next one.
+     */
+    private TerminalSession mSizeSource;
+
+    private final Runnable mFillRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mSessions.size() >= mCapacity || mSizeSource == null) return;
+            TerminalEmulator emulator = mSizeSource.getEmulator();
+            // Not shown yet, so the size is not known:
+            if (emulator == null) return;
+
+            TerminalSession session = mService.buildTermSession(null, null, null, false, SessionPool.this);
+            session.initializeEmulator(emulator.mColumns, emulator.mRows);
+            session.setBackground(true, true);
+            mSessions.add(session);
+            if (mSessions.size() < mCapacity) mHandler.postDelayed(this, FILL_DELAY_MILLIS);
+        }
+    };
+
+    SessionPool(TermuxService service, Handler handler) {
+        mService = service;
+        mHandler = handler;
+    }
+
+    /** Set how many sessions to keep started, killing any above the new capacity. */
+    void setCapacity(int capacity) {
+        mCapacity = capacity;
+        while (mSessions.size() > capacity)
+            mSessions.remove(0).finishIfRunning();
+        scheduleFill();
+    }
+
+    /**
+     * Take a started default session, or return null if there is none. The session must be added to the sessions of
+     * the service, after which its changes are delivered to {@link TermuxService#mSessionChangedListeners}.
+     */
+    TerminalSession take() {
+        // The oldest session is the one whose shell is most likely done starting:
+        TerminalSession session = mSessions.isEmpty() ? null : mSessions.remove(0);
+        // The shell may have exited without the session having been told yet:
+        return (session != null && session.isRunning()) ? session : null;
+    }
+
+    /** Note that a default session has been handed out, to be replaced in the background. */
+    void onSessionCreated(TerminalSession session) {
+        mSizeSource = session;
+        scheduleFill();
+    }
+
+    /** Kill all pooled sessions, as when the system is low on memory. */
+    void drain() {
+        mHandler.removeCallbacks(mFillRunnable);
+        for (int i = 0; i < mSessions.size(); i++)
+            mSessions.get(i).finishIfRunning();
+        mSessions.clear();
+    }
+
+    private void scheduleFill() {
+        mHandler.removeCallbacks(mFillRunnable);
+        if (mSessions.size() < mCapacity) mHandler.postDelayed(mFillRunnable, FILL_DELAY_MILLIS);
+    }
+
+    /** Changes of sessions which have been handed out are forwarded, while those of pooled or killed ones are not. */
+    private boolean isHandedOut(TerminalSession session) {
+        return mService.mTerminalSessions.contains(session);
+    }
+
+    @Override
+    public void onTextChanged(TerminalSession changedSession) {
+        if (isHandedOut(changedSession)) mService.mSessionChangedListeners.onTextChanged(changedSession);
+    }
+
+    @Override
+    public void onTitleChanged(TerminalSession changedSession) {
+        if (isHandedOut(changedSession)) mService.mSessionChangedListeners.onTitleChanged(changedSession);
+    }
+
+    @Override
+    public void onSessionFinished(TerminalSession finishedSession) {
+        if (isHandedOut(finishedSession)) {
+            mService.mSessionChangedListeners.onSessionFinished(finishedSession);
+        } else {
+            // A pooled shell which failed to start is not replaced, to not keep spawning it:
+            mSessions.remove(finishedSession);
+        }
+    }
+
+    @Override
+    public void onClipboardText(TerminalSession session, String text) {
+        if (isHandedOut(session)) mService.mSessionChangedListeners.onClipboardText(session, text);
+    }
+
+    @Override
+    public void onBell(TerminalSession session) {
+        if (isHandedOut(session)) mService.mSessionChangedListeners.onBell(session);
+    }
+
+    @Override
+    public void onColorsChanged(TerminalSession session) {
+        if (isHandedOut(session)) mService.mSessionChangedListeners.onColorsChanged(session);
+    }
+
+}
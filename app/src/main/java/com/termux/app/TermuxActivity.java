@@ -100,6 +100,10 @@ public final class TermuxActivity extends Activity implements ServiceConnection
 
     private static final int MAX_SESSIONS = 8;
 
+    /** The choices for {@link TerminalSession#setMaxBytesPerFrame(int)}, see R.array.session_output_limit_entries. */
+    private static final int[] OUTPUT_LIMITS = {TerminalSession.UNLIMITED_BYTES_PER_FRAME, 256 * 1024,
+        TerminalSession.DEFAULT_MAX_BYTES_PER_FRAME, 8 * 1024};
+
     private static final int REQUESTCODE_PERMISSION_STORAGE = 1234;
 
     private static final String RELOAD_STYLE_ACTION = "com.termux.app.reload_style";
@@ -125,6 +129,9 @@ public final class TermuxActivity extends Activity implements ServiceConnection
     /** Initialized in {@link #onServiceConnected(ComponentName, IBinder)}. */
     ArrayAdapter<TerminalSession> mListViewAdapter;
 
+    /** Registered with {@link #mTermService} in {@link #onServiceConnected(ComponentName, IBinder)}. */
+    SessionChangedCallback mSessionChangedCallback;
+
     /** The last toast shown, used cancel current toast before showing new in {@link #showToast(String, boolean)}. */
     Toast mLastToast;
 
@@ -151,6 +158,8 @@ public final class TermuxActivity extends Activity implements ServiceConnection
                 }
                 checkForFontAndColors();
                 mSettings.reloadFromProperties(TermuxActivity.this);
+                mTerminalView.setShowMetrics(mSettings.mShowMetrics);
+                if (mTermService != null) mTermService.setSessionPoolSize(mSettings.mSessionPoolSize);
             }
         }
     };
@@ -216,6 +225,7 @@ public final class TermuxActivity extends Activity implements ServiceConnection
         mTerminalView.setOnKeyListener(new TermuxViewClient(this));
 
         mTerminalView.setTextSize(mSettings.getFontSize());
+        mTerminalView.setShowMetrics(mSettings.mShowMetrics);
         mFullScreenHelper.setImmersive(mSettings.isFullScreen());
         mTerminalView.requestFocus();
 
@@ -357,8 +367,9 @@ public final class TermuxActivity extends Activity implements ServiceConnection
     @Override
     public void onServiceConnected(ComponentName componentName, IBinder service) {
         mTermService = ((TermuxService.LocalBinder) service).service;
+        mTermService.setSessionPoolSize(mSettings.mSessionPoolSize);
 
-        mTermService.mSessionChangeCallback = new SessionChangedCallback() {
+        mSessionChangedCallback = new SessionChangedCallback() {
             @Override
             public void onTextChanged(TerminalSession changedSession) {
                 if (!mIsVisible) return;
@@ -424,6 +435,8 @@ public final class TermuxActivity extends Activity implements ServiceConnection
                 if (getCurrentTermSession() == changedSession) updateBackgroundColor();
             }
         };
+        mTermService.addSessionChangedListener(mSessionChangedCallback, SessionChangedListeners.DISPATCH_IMMEDIATE);
+        if (mIsVisible) mTermService.setViewVisible(this, true);
 
         ListView listView = (ListView) findViewById(R.id.left_drawer_list);
         mListViewAdapter = new ArrayAdapter<TerminalSession>(getApplicationContext(), R.layout.line_in_drawer, mTermService.getSessions()) {
@@ -450,8 +463,13 @@ public final class TermuxActivity extends Activity implements ServiceConnection
                 String numberPart = "[" + (position + 1) + "] ";
                 String sessionNamePart = (TextUtils.isEmpty(name) ? "" : name);
                 String sessionTitlePart = (TextUtils.isEmpty(sessionTitle) ? "" : ((sessionNamePart.isEmpty() ? "" : "\n") + sessionTitle));
+                // Only show the output limit if changed from the default:
+                int outputLimit = sessionAtRow.getMaxBytesPerFrame();
+                String outputLimitPart = (outputLimit == TerminalSession.DEFAULT_MAX_BYTES_PER_FRAME) ? "" :
+                    (" " + ((outputLimit == TerminalSession.UNLIMITED_BYTES_PER_FRAME) ? getString(R.string.session_output_limit_unlimited) :
+                        getString(R.string.session_output_limit_bytes, outputLimit / 1024)));
 
-                String text = numberPart + sessionNamePart + sessionTitlePart;
+                String text = numberPart + sessionNamePart + sessionTitlePart + outputLimitPart;
                 SpannableString styledText = new SpannableString(text);
                 styledText.setSpan(boldSpan, 0, numberPart.length() + sessionNamePart.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 styledText.setSpan(italicSpan, numberPart.length() + sessionNamePart.length(), text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
@@ -533,7 +551,28 @@ public final class TermuxActivity extends Activity implements ServiceConnection
                 sessionToRename.mSessionName = text;
                 mListViewAdapter.notifyDataSetChanged();
             }
-        }, -1, null, -1, null, null);
+        }, R.string.session_output_limit_button, new DialogUtils.TextSetListener() {
+            @Override
+            public void onTextSet(String text) {
+                chooseOutputLimit(sessionToRename);
+            }
+        }, -1, null, null);
+    }
+
+    /** Let the user limit how much output of a session is processed per frame, see {@link TerminalSession#setMaxBytesPerFrame(int)}. */
+    void chooseOutputLimit(final TerminalSession session) {
+        int checkedItem = -1;
+        for (int i = 0; i < OUTPUT_LIMITS.length; i++)
+            if (OUTPUT_LIMITS[i] == session.getMaxBytesPerFrame()) checkedItem = i;
+        new AlertDialog.Builder(this).setTitle(R.string.session_output_limit_title)
+            .setSingleChoiceItems(R.array.session_output_limit_entries, checkedItem, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    session.setMaxBytesPerFrame(OUTPUT_LIMITS[which]);
+                    mListViewAdapter.notifyDataSetChanged();
+                    dialog.dismiss();
+                }
+            }).setNegativeButton(android.R.string.cancel, null).show();
     }
 
     @Override
@@ -555,6 +594,7 @@ public final class TermuxActivity extends Activity implements ServiceConnection
         mIsVisible = true;
 
         if (mTermService != null) {
+            mTermService.setViewVisible(this, true);
             // The service has connected, but data may have changed since we were last in the foreground.
             switchToSession(getStoredCurrentSessionOrLast());
             mListViewAdapter.notifyDataSetChanged();
@@ -571,6 +611,7 @@ public final class TermuxActivity extends Activity implements ServiceConnection
     protected void onStop() {
         super.onStop();
         mIsVisible = false;
+        if (mTermService != null) mTermService.setViewVisible(this, false);
         TerminalSession currentSession = getCurrentTermSession();
         if (currentSession != null) TermuxPreferences.storeCurrentSession(this, currentSession);
         unregisterReceiver(mBroadcastReceiever);
@@ -591,7 +632,8 @@ public final class TermuxActivity extends Activity implements ServiceConnection
         super.onDestroy();
         if (mTermService != null) {
             // Do not leave service with references to activity.
-            mTermService.mSessionChangeCallback = null;
+            mTermService.removeSessionChangedListener(mSessionChangedCallback);
+            mTermService.setViewVisible(this, false);
             mTermService = null;
         }
         unbindService(this);
@@ -619,6 +661,7 @@ public final class TermuxActivity extends Activity implements ServiceConnection
     /** Try switching to session and note about it, but do nothing if already displaying the session. */
     void switchToSession(TerminalSession session) {
         if (mTerminalView.attachSession(session)) {
+            mTermService.onSessionViewed(session);
             noteSessionInfo();
             updateBackgroundColor();
         }
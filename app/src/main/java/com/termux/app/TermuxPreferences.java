@@ -31,6 +31,7 @@ final class TermuxPreferences {
 
     private final int MIN_FONTSIZE;
     private static final int MAX_FONTSIZE = 256;
+    private static final int MAX_SESSION_POOL_SIZE = 4;
 
     private static final String FULLSCREEN_KEY = "fullscreen";
     private static final String SHOW_EXTRA_KEYS_KEY = "show_extra_keys";
@@ -45,6 +46,10 @@ final class TermuxPreferences {
 
     boolean mBackIsEscape;
     boolean mShowExtraKeys;
+    /** If the terminal view should show an overlay with the I/O metrics of the session. */
+    boolean mShowMetrics;
+    /** How many default sessions the service keeps started ahead of time, see {@link SessionPool}. */
+    int mSessionPoolSize;
 
     TermuxPreferences(Context context) {
         reloadFromProperties(context);
@@ -142,6 +147,14 @@ final class TermuxPreferences {
             }
 
             mBackIsEscape = "escape".equals(props.getProperty("back-key", "back"));
+            mShowMetrics = "true".equals(props.getProperty("debug-metrics", "false"));
+
+            try {
+                mSessionPoolSize = Integer.parseInt(props.getProperty("session-pool-size", "0").trim());
+            } catch (NumberFormatException e) {
+                mSessionPoolSize = 0;
+            }
+            mSessionPoolSize = Math.max(0, Math.min(mSessionPoolSize, MAX_SESSION_POOL_SIZE));
 
             shortcuts.clear();
             parseAction("shortcut.create-session", SHORTCUT_ACTION_CREATE_SESSION, props);
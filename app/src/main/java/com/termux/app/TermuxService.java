@@ -21,12 +21,18 @@ import android.widget.ArrayAdapter;
 
 import com.termux.R;
 import com.termux.terminal.EmulatorDebug;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalRowPool;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSession.SessionChangedCallback;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A service holding a list of terminal sessions, {@link #mTerminalSessions}, showing a foreground notification while
@@ -40,7 +46,7 @@ import java.util.List;
  * Optionally may hold a wake and a wifi lock, in which case that is shown in the notification - see
  * {@link #buildNotification()}.
  */
-public final class TermuxService extends Service implements SessionChangedCallback {
+public final class TermuxService extends Service {
 
     private static final String NOTIFICATION_CHANNEL_ID = "termux_notification_channel";
 
@@ -52,9 +58,26 @@ public final class TermuxService extends Service implements SessionChangedCallba
 
     private static final int NOTIFICATION_ID = 1337;
 
+    /**
+     * The memory the history of all sessions may use together when the system starts to run low on memory, see
+     * {@link #trimTranscripts(long)}. A quarter of it is kept when running low and none when critical, apart from the
+     * history of the sessions kept in full.
+     */
+    private static final long TRANSCRIPT_BUDGET_BYTES = 8 * 1024 * 1024;
+
     private static final String ACTION_STOP_SERVICE = "com.termux.service_stop";
     private static final String ACTION_LOCK_WAKE = "com.termux.service_wake_lock";
     private static final String ACTION_UNLOCK_WAKE = "com.termux.service_wake_unlock";
+    /** Intent actions to start and stop the server for local clients, see {@link TermuxSocketServer}. */
+    private static final String ACTION_START_SERVER = "com.termux.service_start_server";
+    private static final String ACTION_STOP_SERVER = "com.termux.service_stop_server";
+    /**
+     * Intent actions to start recording a session to the file in the intent data, for replay with
+     * {@link com.termux.terminal.SessionReplayer}, and to stop recording it. The session is the one with the handle in
+     * {@link #EXTRA_SESSION_HANDLE}, or the most recently viewed one if not given.
+     */
+    private static final String ACTION_START_RECORDING = "com.termux.service_start_recording";
+    private static final String ACTION_STOP_RECORDING = "com.termux.service_stop_recording";
     /** Intent action to launch a new terminal session. Executed from TermuxWidgetProvider. */
     public static final String ACTION_EXECUTE = "com.termux.service_execute";
 
@@ -63,6 +86,8 @@ public final class TermuxService extends Service implements SessionChangedCallba
     public static final String EXTRA_CURRENT_WORKING_DIRECTORY = "com.termux.execute.cwd";
     private static final String EXTRA_EXECUTE_IN_BACKGROUND = "com.termux.execute.background";
 
+    private static final String EXTRA_SESSION_HANDLE = "com.termux.recording.session";
+
     /** This service is only bound from inside the same process and never uses IPC. */
     class LocalBinder extends Binder {
         public final TermuxService service = TermuxService.this;
@@ -82,13 +107,31 @@ public final class TermuxService extends Service implements SessionChangedCallba
 
     final List<BackgroundJob> mBackgroundTasks = new ArrayList<>();
 
-    /** Note that the service may often outlive the activity, so need to clear this reference. */
-    SessionChangedCallback mSessionChangeCallback;
+    /**
+     * The listeners to changes of the sessions. Note that the service may often outlive the activities, so they need to
+     * remove themselves.
+     */
+    final SessionChangedListeners mSessionChangedListeners = new SessionChangedListeners();
 
     /** The wake lock and wifi lock are always acquired and released together. */
     private PowerManager.WakeLock mWakeLock;
     private WifiManager.WifiLock mWifiLock;
 
+    /** The server for local clients, if started with {@link #ACTION_START_SERVER}. */
+    private TermuxSocketServer mSocketServer;
+
+    /**
+     * The activities currently showing sessions. While empty, sessions not attached to by a client of
+     * {@link #mSocketServer} are put in background mode, see {@link TerminalSession#setBackground(boolean, boolean)}.
+     */
+    private final Set<Object> mVisibleViews = new HashSet<>();
+
+    /** The sessions in the order they were last shown by an activity, the most recently shown last. */
+    private final List<TerminalSession> mViewOrder = new ArrayList<>();
+
+    /** Started default sessions to hand out from {@link #createTermSession(String, String[], String, boolean)}. */
+    private final SessionPool mSessionPool = new SessionPool(this, mHandler);
+
     /** If the user has executed the {@link #ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
@@ -124,6 +167,43 @@ public final class TermuxService extends Service implements SessionChangedCallba
 
                 updateNotification();
             }
+        } else if (ACTION_START_SERVER.equals(action)) {
+            if (mSocketServer == null) {
+                TermuxSocketServer server = new TermuxSocketServer(this, mHandler);
+                try {
+                    server.start();
+                    mSocketServer = server;
+                    addSessionChangedListener(server, SessionChangedListeners.DISPATCH_COALESCED);
+                    updateBackgroundModes();
+                } catch (IOException e) {
+                    Log.e(EmulatorDebug.LOG_TAG, "Error starting server", e);
+                }
+                updateNotification();
+            }
+        } else if (ACTION_STOP_SERVER.equals(action)) {
+            if (mSocketServer != null) {
+                removeSessionChangedListener(mSocketServer);
+                mSocketServer.stop();
+                mSocketServer = null;
+                updateBackgroundModes();
+                updateNotification();
+            }
+        } else if (ACTION_START_RECORDING.equals(action) || ACTION_STOP_RECORDING.equals(action)) {
+            TerminalSession session = findSessionToRecord(intent.getStringExtra(EXTRA_SESSION_HANDLE));
+            Uri fileUri = intent.getData();
+            if (session == null || !session.isRunning() || session.getEmulator() == null) {
+                Log.e(EmulatorDebug.LOG_TAG, "No running session to record");
+            } else if (ACTION_STOP_RECORDING.equals(action)) {
+                session.stopRecording();
+            } else if (fileUri == null || fileUri.getPath() == null) {
+                Log.e(EmulatorDebug.LOG_TAG, "No file to record session to");
+            } else {
+                try {
+                    session.startRecording(new FileOutputStream(fileUri.getPath()));
+                } catch (IOException e) {
+                    Log.e(EmulatorDebug.LOG_TAG, "Error starting session recording", e);
+                }
+            }
         } else if (ACTION_EXECUTE.equals(action)) {
             Uri executableUri = intent.getData();
             String executablePath = (executableUri == null ? null : executableUri.getPath());
@@ -174,8 +254,8 @@ public final class TermuxService extends Service implements SessionChangedCallba
 
     /** Update the shown foreground service notification after making any changes that affect it. */
     void updateNotification() {
-        if (mWakeLock == null && mTerminalSessions.isEmpty() && mBackgroundTasks.isEmpty()) {
-            // Exit if we are updating after the user disabled all locks with no sessions or tasks running.
+        if (mWakeLock == null && mSocketServer == null && mTerminalSessions.isEmpty() && mBackgroundTasks.isEmpty()) {
+            // Exit if we are updating after the user disabled all locks and the server with no sessions or tasks running.
             stopSelf();
         } else {
             ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).notify(NOTIFICATION_ID, buildNotification());
@@ -198,6 +278,7 @@ public final class TermuxService extends Service implements SessionChangedCallba
 
         final boolean wakeLockHeld = mWakeLock != null;
         if (wakeLockHeld) contentText += " (wake lock held)";
+        if (mSocketServer != null) contentText += " (server running)";
 
         Notification.Builder builder = new Notification.Builder(this);
         builder.setContentTitle(getText(R.string.application_name));
@@ -239,19 +320,122 @@ public final class TermuxService extends Service implements SessionChangedCallba
     public void onDestroy() {
         if (mWakeLock != null) mWakeLock.release();
         if (mWifiLock != null) mWifiLock.release();
+        if (mSocketServer != null) mSocketServer.stop();
 
         stopForeground(true);
 
+        mSessionPool.drain();
         for (int i = 0; i < mTerminalSessions.size(); i++)
             mTerminalSessions.get(i).finishIfRunning();
         mTerminalSessions.clear();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        // The pooled sessions are only idle shells, so give up their memory as soon as the system starts to run low:
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) mSessionPool.drain();
+
+        long budgetBytes;
+        if (level == TRIM_MEMORY_RUNNING_MODERATE) {
+            budgetBytes = TRANSCRIPT_BUDGET_BYTES;
+        } else if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_BACKGROUND) {
+            budgetBytes = TRANSCRIPT_BUDGET_BYTES / 4;
+        } else if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_MODERATE) {
+            budgetBytes = 0;
+        } else {
+            // Only the user interface being hidden, which is not memory pressure.
+            return;
+        }
+        long freedBytes = trimTranscripts(budgetBytes) + TerminalRowPool.clear();
+        Log.i(EmulatorDebug.LOG_TAG, "Trimmed session history at memory trim level " + level + ", freeing " + (freedBytes / 1024) + " KiB");
+    }
+
+    @Override
+    public void onLowMemory() {
+        mSessionPool.drain();
+        long freedBytes = trimTranscripts(0) + TerminalRowPool.clear();
+        Log.i(EmulatorDebug.LOG_TAG, "Trimmed session history on low memory, freeing " + (freedBytes / 1024) + " KiB");
+    }
+
+    /**
+     * Trim the history of the sessions so that together it fits in a memory budget, if possible. The history of the
+     * most recently viewed session and of sessions attached to by clients is kept in full, even with no visible
+     * activity, and counted first. The other sessions then keep their history in the order they were last viewed, so
+     * that the least recently viewed sessions are trimmed first.
+     *
+     * @return the approximate number of bytes freed.
+     */
+    long trimTranscripts(long budgetBytes) {
+        // Most recently viewed first, followed by sessions never viewed:
+        List<TerminalSession> sessions = new ArrayList<>(mTerminalSessions.size());
+        for (int i = mViewOrder.size() - 1; i >= 0; i--)
+            sessions.add(mViewOrder.get(i));
+        for (int i = 0; i < mTerminalSessions.size(); i++)
+            if (!sessions.contains(mTerminalSessions.get(i))) sessions.add(mTerminalSessions.get(i));
+
+        long usedBytes = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            TerminalEmulator emulator = sessions.get(i).getEmulator();
+            if (emulator != null && isKeptInFull(sessions.get(i))) usedBytes += emulator.getTranscriptBytes();
+        }
+
+        long freedBytes = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            TerminalEmulator emulator = sessions.get(i).getEmulator();
+            if (emulator == null || isKeptInFull(sessions.get(i))) continue;
+            freedBytes += emulator.trimTranscript(Math.max(0, budgetBytes - usedBytes));
+            usedBytes += emulator.getTranscriptBytes();
+        }
+        return freedBytes;
+    }
+
+    /**
+     * If the history of a session is not trimmed: the session last viewed, which is the one shown when an activity is
+     * visible or the one the user returns to, or one shown to a client of {@link #mSocketServer}.
+     */
+    private boolean isKeptInFull(TerminalSession session) {
+        boolean current = !mViewOrder.isEmpty() && mViewOrder.get(mViewOrder.size() - 1) == session;
+        return current || (mSocketServer != null && mSocketServer.isAttached(session));
+    }
+
+    /** The session with a handle, or the most recently viewed session if the handle is null. */
+    private TerminalSession findSessionToRecord(String handle) {
+        if (handle == null) return mViewOrder.isEmpty() ? null : mViewOrder.get(mViewOrder.size() - 1);
+        for (int i = 0; i < mTerminalSessions.size(); i++)
+            if (handle.equals(mTerminalSessions.get(i).mHandle)) return mTerminalSessions.get(i);
+        return null;
+    }
+
+    /** Called by an activity when it shows a session, so that the history of recently viewed sessions is kept longest. */
+    public void onSessionViewed(TerminalSession session) {
+        mViewOrder.remove(session);
+        mViewOrder.add(session);
+    }
+
     public List<TerminalSession> getSessions() {
         return mTerminalSessions;
     }
 
+    /** Set how many default sessions to keep started ahead of time, see {@link SessionPool}. */
+    public void setSessionPoolSize(int size) {
+        mSessionPool.setCapacity(size);
+    }
+
     TerminalSession createTermSession(String executablePath, String[] arguments, String cwd, boolean failSafe) {
+        boolean isDefault = (executablePath == null && arguments == null && cwd == null && !failSafe);
+        TerminalSession session = isDefault ? mSessionPool.take() : null;
+        if (session == null) session = buildTermSession(executablePath, arguments, cwd, failSafe, mSessionChangedListeners);
+
+        mTerminalSessions.add(session);
+        updateBackgroundMode(session);
+        updateNotification();
+        if (isDefault) mSessionPool.onSessionCreated(session);
+        return session;
+    }
+
+    /** Create a session without starting it or adding it to {@link #mTerminalSessions}. */
+    TerminalSession buildTermSession(String executablePath, String[] arguments, String cwd, boolean failSafe,
+                                     SessionChangedCallback changeCallback) {
         new File(HOME_PATH).mkdirs();
 
         if (cwd == null) cwd = HOME_PATH;
@@ -285,18 +469,16 @@ public final class TermuxService extends Service implements SessionChangedCallba
         args[0] = processName;
         if (processArgs.length > 1) System.arraycopy(processArgs, 1, args, 1, processArgs.length - 1);
 
-        TerminalSession session = new TerminalSession(executablePath, cwd, args, env, this);
-        mTerminalSessions.add(session);
-        updateNotification();
-        return session;
+        return new TerminalSession(executablePath, cwd, args, env, changeCallback);
     }
 
     public int removeTermSession(TerminalSession sessionToRemove) {
         int indexOfRemoved = mTerminalSessions.indexOf(sessionToRemove);
         mTerminalSessions.remove(indexOfRemoved);
-        if (mTerminalSessions.isEmpty() && mWakeLock == null) {
+        mViewOrder.remove(sessionToRemove);
+        if (mTerminalSessions.isEmpty() && mWakeLock == null && mSocketServer == null) {
             // Finish if there are no sessions left and the wake lock is not held, otherwise keep the service alive if
-            // holding wake lock since there may be daemon processes (e.g. sshd) running.
+            // holding wake lock since there may be daemon processes (e.g. sshd) running, or if clients may connect.
             stopSelf();
         } else {
             updateNotification();
@@ -304,35 +486,33 @@ public final class TermuxService extends Service implements SessionChangedCallba
         return indexOfRemoved;
     }
 
-    @Override
-    public void onTitleChanged(TerminalSession changedSession) {
-        if (mSessionChangeCallback != null) mSessionChangeCallback.onTitleChanged(changedSession);
-    }
-
-    @Override
-    public void onSessionFinished(final TerminalSession finishedSession) {
-        if (mSessionChangeCallback != null)
-            mSessionChangeCallback.onSessionFinished(finishedSession);
+    /**
+     * Start receiving changes to the sessions.
+     *
+     * @param policy how changes are delivered, one of the DISPATCH_* constants in {@link SessionChangedListeners}.
+     */
+    public void addSessionChangedListener(SessionChangedCallback listener, int policy) {
+        mSessionChangedListeners.add(listener, policy);
     }
 
-    @Override
-    public void onTextChanged(TerminalSession changedSession) {
-        if (mSessionChangeCallback != null) mSessionChangeCallback.onTextChanged(changedSession);
+    public void removeSessionChangedListener(SessionChangedCallback listener) {
+        mSessionChangedListeners.remove(listener);
     }
 
-    @Override
-    public void onClipboardText(TerminalSession session, String text) {
-        if (mSessionChangeCallback != null) mSessionChangeCallback.onClipboardText(session, text);
+    /** Called by an activity when it starts or stops showing sessions, to update the background mode of the sessions. */
+    public void setViewVisible(Object view, boolean visible) {
+        if (visible ? mVisibleViews.add(view) : mVisibleViews.remove(view)) updateBackgroundModes();
     }
 
-    @Override
-    public void onBell(TerminalSession session) {
-        if (mSessionChangeCallback != null) mSessionChangeCallback.onBell(session);
+    /** Update the background mode of all sessions, as after a change in which sessions are being shown. */
+    void updateBackgroundModes() {
+        for (int i = 0; i < mTerminalSessions.size(); i++)
+            updateBackgroundMode(mTerminalSessions.get(i));
     }
 
-    @Override
-    public void onColorsChanged(TerminalSession session) {
-        if (mSessionChangeCallback != null) mSessionChangeCallback.onColorsChanged(session);
+    private void updateBackgroundMode(TerminalSession session) {
+        boolean shown = !mVisibleViews.isEmpty() || (mSocketServer != null && mSocketServer.isAttached(session));
+        session.setBackground(!shown, true);
     }
 
     public void onBackgroundJobExited(final BackgroundJob task) {
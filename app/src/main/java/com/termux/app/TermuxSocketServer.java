@@ -0,0 +1,486 @@
+package com.termux.app;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Handler;
+import android.os.Process;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.termux.terminal.EmulatorDebug;
+import com.termux.terminal.ScreenDiffer;
+import com.termux.terminal.ScreenSnapshot;
+import com.termux.terminal.TerminalSession;
+import com.termux.terminal.TerminalSession.SessionChangedCallback;
+import com.termux.terminal.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A server letting local clients such as automation scripts drive the sessions of {@link TermuxService} over a Unix
+ * domain socket at {@link #SOCKET_PATH}, without an activity showing them. Only connections from the user id of Termux
+ * are accepted.
+ * <p/>
+ * Messages in both directions are a type byte followed by the payload length and the payload, with numbers and strings
+ * encoded as by {@link WireFormat}. Attaching to a session gives a channel number, which is the first value of the
+ * following messages for that session so that one connection can multiplex many sessions. Clients send:
+ * <ul>
+ * <li>{@link #MSG_LIST}: List the sessions, answered by {@link #MSG_SESSIONS} with the number of sessions followed by
+ * the handle, name and title of each.</li>
+ * <li>{@link #MSG_ATTACH}: Attach to the session with a handle, or to a new session if the handle is empty, followed by
+ * the columns and rows to resize it to (or zeros to keep the size of an existing session). Answered by
+ * {@link #MSG_ATTACHED} with the channel and session handle and a {@link #MSG_SNAPSHOT} of the screen, after which
+ * screen changes are sent as {@link #MSG_DIFF}.</li>
+ * <li>{@link #MSG_DETACH}: Stop receiving updates for a channel, leaving its session running.</li>
+ * <li>{@link #MSG_INPUT}: Write the rest of the payload to the session, as if typed by the user. Dropped and answered
+ * with {@link #MSG_ERROR} if too much input is already waiting for a process not reading it.</li>
+ * <li>{@link #MSG_RESIZE}: Resize the session to the columns and rows.</li>
+ * <li>{@link #MSG_REQUEST_SNAPSHOT}: Request a new {@link #MSG_SNAPSHOT} of the screen.</li>
+ * <li>{@link #MSG_FINISH}: Kill the process of the session.</li>
+ * </ul>
+ * When the process of an attached session exits, {@link #MSG_FINISHED} is sent with the channel and exit status and the
+ * channel is detached. Invalid requests are answered with {@link #MSG_ERROR} and a message. Snapshots and diffs are the
+ * channel followed by a delta from {@link ScreenDiffer}, which for snapshots contains the whole screen.
+ * <p/>
+ * Sessions are only accessed on the main thread, to which messages are handed off from one reader thread per client.
+ * Replies are written by one writer thread per client, and a client not reading them fast enough is disconnected. Screen
+ * changes are received with {@link SessionChangedListeners#DISPATCH_COALESCED}, so at most one diff per session is sent
+ * each display frame.
+ */
+final class TermuxSocketServer implements SessionChangedCallback {
+
+    static final String SOCKET_PATH = TermuxService.FILES_PATH + "/termux-server.sock";
+
+    static final int MSG_LIST = 1;
+    static final int MSG_ATTACH = 2;
+    static final int MSG_DETACH = 3;
+    static final int MSG_INPUT = 4;
+    static final int MSG_RESIZE = 5;
+    static final int MSG_REQUEST_SNAPSHOT = 6;
+    static final int MSG_FINISH = 7;
+
+    static final int MSG_SESSIONS = 0x81;
+    static final int MSG_ATTACHED = 0x82;
+    static final int MSG_SNAPSHOT = 0x83;
+    static final int MSG_DIFF = 0x84;
+    static final int MSG_FINISHED = 0x85;
+    static final int MSG_ERROR = 0xFF;
+
+    private static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+    /** The number of messages which may be waiting to be written to a client before it is considered too slow. */
+    private static final int MAX_QUEUED_MESSAGES = 256;
+    private static final int DEFAULT_COLUMNS = 80;
+    private static final int DEFAULT_ROWS = 24;
+
+    /** Queued to the writer thread of a client to make it exit. */
+    private static final byte[] CLOSE_MARKER = new byte[0];
+
+    /** A session attached by a client. */
+    private static final class Channel {
+        final int mId;
+        final TerminalSession mSession;
+        /** Created when the first snapshot is sent. */
+        ScreenDiffer mDiffer;
+        /** If the next update should be a whole snapshot. */
+        boolean mSnapshotNeeded = true;
+
+        Channel(int id, TerminalSession session) {
+            mId = id;
+            mSession = session;
+        }
+    }
+
+    private final class Client {
+        final LocalSocket mSocket;
+        final BlockingQueue<byte[]> mOutgoing = new ArrayBlockingQueue<>(MAX_QUEUED_MESSAGES + 1);
+        /** The attached sessions by channel, only accessed on the main thread. */
+        final SparseArray<Channel> mChannels = new SparseArray<>();
+        int mNextChannelId = 1;
+        /** Only accessed on the main thread. */
+        boolean mClosed;
+
+        Client(LocalSocket socket) {
+            mSocket = socket;
+        }
+
+        void start() {
+            new Thread("TermuxServerReader") {
+                @Override
+                public void run() {
+                    try {
+                        InputStream in = new BufferedInputStream(mSocket.getInputStream(), 8192);
+                        int type;
+                        while ((type = in.read()) != -1) {
+                            int length = WireFormat.readInt(in);
+                            if (length > MAX_MESSAGE_LENGTH) throw new IOException("Too long message: " + length);
+                            byte[] payload = new byte[length];
+                            WireFormat.readFully(in, payload, length);
+                            final int messageType = type;
+                            final byte[] messagePayload = payload;
+                            mHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    handleMessage(Client.this, messageType, messagePayload);
+                                }
+                            });
+                        }
+                    } catch (IOException e) {
+                        Log.w(EmulatorDebug.LOG_TAG, "Error reading from server client: " + e.getMessage());
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            }.start();
+
+            new Thread("TermuxServerWriter") {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream out = mSocket.getOutputStream();
+                        while (true) {
+                            byte[] message = mOutgoing.take();
+                            if (message == CLOSE_MARKER) break;
+                            out.write(message);
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        Log.w(EmulatorDebug.LOG_TAG, "Error writing to server client: " + e.getMessage());
+                    }
+                    try {
+                        mSocket.close();
+                    } catch (IOException e) {
+                        // Ignore.
+                    }
+                }
+            }.start();
+        }
+
+        void send(int type, byte[] payload) {
+            if (mClosed) return;
+            ByteArrayOutputStream message = new ByteArrayOutputStream(payload.length + 6);
+            message.write(type);
+            writeVarInts(message, payload.length);
+            message.write(payload, 0, payload.length);
+            if (!mOutgoing.offer(message.toByteArray()) || mOutgoing.size() > MAX_QUEUED_MESSAGES) {
+                Log.w(EmulatorDebug.LOG_TAG, "Disconnecting server client not reading fast enough");
+                close();
+            }
+        }
+
+        void close() {
+            if (mClosed) return;
+            mClosed = true;
+            mClients.remove(this);
+            mChannels.clear();
+            mService.updateBackgroundModes();
+            // Wake up the reader thread, as well as the writer thread if blocked writing to a client not reading. The
+            // writer thread closes the socket when done.
+            try {
+                mSocket.shutdownInput();
+            } catch (IOException e) {
+                // Ignore.
+            }
+            try {
+                mSocket.shutdownOutput();
+            } catch (IOException e) {
+                // Ignore.
+            }
+            mOutgoing.clear();
+            mOutgoing.offer(CLOSE_MARKER);
+        }
+    }
+
+    private final TermuxService mService;
+    /** Handler on the main thread. */
+    private final Handler mHandler;
+    /** The connected clients, only accessed on the main thread. */
+    private final List<Client> mClients = new ArrayList<>();
+
+    private LocalSocket mSocket;
+    private LocalServerSocket mServerSocket;
+
+    TermuxSocketServer(TermuxService service, Handler handler) {
+        mService = service;
+        mHandler = handler;
+    }
+
+    /** Start listening for connections. Must be called on the main thread. */
+    void start() throws IOException {
+        // Remove a socket file left by an earlier process, which would make binding fail:
+        new File(SOCKET_PATH).delete();
+        mSocket = new LocalSocket();
+        mSocket.bind(new LocalSocketAddress(SOCKET_PATH, LocalSocketAddress.Namespace.FILESYSTEM));
+        mServerSocket = new LocalServerSocket(mSocket.getFileDescriptor());
+
+        final LocalServerSocket serverSocket = mServerSocket;
+        new Thread("TermuxServerAccept") {
+            @Override
+            public void run() {
+                while (true) {
+                    final LocalSocket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        // Expected when the server is stopped.
+                        return;
+                    }
+                    try {
+                        if (socket.getPeerCredentials().getUid() != Process.myUid()) {
+                            Log.w(EmulatorDebug.LOG_TAG, "Rejecting server connection from uid " + socket.getPeerCredentials().getUid());
+                            socket.close();
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        Log.w(EmulatorDebug.LOG_TAG, "Error checking server client: " + e.getMessage());
+                        try {
+                            socket.close();
+                        } catch (IOException e2) {
+                            // Ignore.
+                        }
+                        continue;
+                    }
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            Client client = new Client(socket);
+                            mClients.add(client);
+                            client.start();
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    /** Stop listening and disconnect all clients. Must be called on the main thread. */
+    void stop() {
+        for (int i = mClients.size() - 1; i >= 0; i--)
+            mClients.get(i).close();
+        try {
+            // Closing does not wake up a thread blocked in accept(), but shutting down the socket does:
+            Os.shutdown(mSocket.getFileDescriptor(), OsConstants.SHUT_RDWR);
+        } catch (ErrnoException e) {
+            Log.w(EmulatorDebug.LOG_TAG, "Error shutting down server socket: " + e.getMessage());
+        }
+        try {
+            mServerSocket.close();
+            mSocket.close();
+        } catch (IOException e) {
+            Log.w(EmulatorDebug.LOG_TAG, "Error closing server socket: " + e.getMessage());
+        }
+        new File(SOCKET_PATH).delete();
+    }
+
+    /** If a client is attached to a session, so that it should not be in background mode. */
+    boolean isAttached(TerminalSession session) {
+        for (int i = 0; i < mClients.size(); i++) {
+            SparseArray<Channel> channels = mClients.get(i).mChannels;
+            for (int j = 0; j < channels.size(); j++)
+                if (channels.valueAt(j).mSession == session) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onTextChanged(TerminalSession changedSession) {
+        sendUpdates(changedSession);
+    }
+
+    @Override
+    public void onTitleChanged(TerminalSession changedSession) {
+        sendUpdates(changedSession);
+    }
+
+    private void sendUpdates(TerminalSession session) {
+        for (int i = mClients.size() - 1; i >= 0; i--) {
+            Client client = mClients.get(i);
+            for (int j = client.mChannels.size() - 1; j >= 0 && !client.mClosed; j--) {
+                Channel channel = client.mChannels.valueAt(j);
+                if (channel.mSession == session) sendUpdate(client, channel);
+            }
+        }
+    }
+
+    @Override
+    public void onSessionFinished(TerminalSession session) {
+        for (int i = mClients.size() - 1; i >= 0; i--) {
+            Client client = mClients.get(i);
+            for (int j = client.mChannels.size() - 1; j >= 0 && !client.mClosed; j--) {
+                Channel channel = client.mChannels.valueAt(j);
+                if (channel.mSession != session) continue;
+                sendUpdate(client, channel);
+                client.mChannels.removeAt(j);
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                writeVarInts(payload, channel.mId, session.getExitStatus());
+                client.send(MSG_FINISHED, payload.toByteArray());
+            }
+        }
+    }
+
+    @Override
+    public void onClipboardText(TerminalSession session, String text) {
+    }
+
+    @Override
+    public void onBell(TerminalSession session) {
+    }
+
+    @Override
+    public void onColorsChanged(TerminalSession session) {
+    }
+
+    private void sendUpdate(Client client, Channel channel) {
+        if (channel.mDiffer == null) channel.mDiffer = new ScreenDiffer(channel.mSession.getEmulator());
+        if (channel.mSnapshotNeeded) channel.mDiffer.reset();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarInts(payload, channel.mId);
+        try {
+            if (!channel.mDiffer.writeDelta(payload)) return;
+        } catch (IOException e) {
+            // Not thrown by ByteArrayOutputStream.
+            throw new RuntimeException(e);
+        }
+        client.send(channel.mSnapshotNeeded ? MSG_SNAPSHOT : MSG_DIFF, payload.toByteArray());
+        channel.mSnapshotNeeded = false;
+    }
+
+    private void handleMessage(Client client, int type, byte[] payload) {
+        if (client.mClosed) return;
+        InputStream in = new ByteArrayInputStream(payload);
+        try {
+            switch (type) {
+                case MSG_LIST: {
+                    List<TerminalSession> sessions = mService.getSessions();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    WireFormat.writeVarInt(out, sessions.size());
+                    for (TerminalSession session : sessions) {
+                        WireFormat.writeString(out, session.mHandle);
+                        WireFormat.writeString(out, session.mSessionName);
+                        WireFormat.writeString(out, session.getTitle());
+                    }
+                    client.send(MSG_SESSIONS, out.toByteArray());
+                    break;
+                }
+                case MSG_ATTACH: {
+                    String handle = WireFormat.readString(in, 64);
+                    int columns = WireFormat.readInt(in);
+                    int rows = WireFormat.readInt(in);
+                    TerminalSession session;
+                    boolean sizeGiven = columns != 0 || rows != 0;
+                    if (sizeGiven) checkSize(columns, rows);
+                    if (handle.isEmpty()) {
+                        session = mService.createTermSession(null, null, null, false);
+                        session.updateSize(sizeGiven ? columns : DEFAULT_COLUMNS, sizeGiven ? rows : DEFAULT_ROWS);
+                        // Let a visible activity update its list of sessions:
+                        mService.mSessionChangedListeners.onTitleChanged(session);
+                    } else {
+                        session = findSession(handle);
+                        if (session == null) throw new IOException("No session with handle " + handle);
+                        if (sizeGiven) {
+                            session.updateSize(columns, rows);
+                        } else if (session.getEmulator() == null) {
+                            // Not yet shown by the activity, so the process has not been started.
+                            session.updateSize(DEFAULT_COLUMNS, DEFAULT_ROWS);
+                        }
+                    }
+                    Channel channel = new Channel(client.mNextChannelId++, session);
+                    client.mChannels.put(channel.mId, channel);
+                    mService.updateBackgroundModes();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    WireFormat.writeVarInt(out, channel.mId);
+                    WireFormat.writeString(out, session.mHandle);
+                    client.send(MSG_ATTACHED, out.toByteArray());
+                    sendUpdate(client, channel);
+                    break;
+                }
+                case MSG_DETACH:
+                    client.mChannels.remove(readChannel(client, in).mId);
+                    mService.updateBackgroundModes();
+                    break;
+                case MSG_INPUT: {
+                    Channel channel = readChannel(client, in);
+                    int offset = payload.length - in.available();
+                    if (!channel.mSession.tryWrite(payload, offset, payload.length - offset))
+                        throw new IOException("Input dropped since the process is not reading it");
+                    break;
+                }
+                case MSG_RESIZE: {
+                    Channel channel = readChannel(client, in);
+                    int columns = WireFormat.readInt(in);
+                    int rows = WireFormat.readInt(in);
+                    checkSize(columns, rows);
+                    channel.mSession.updateSize(columns, rows);
+                    sendUpdate(client, channel);
+                    break;
+                }
+                case MSG_REQUEST_SNAPSHOT: {
+                    Channel channel = readChannel(client, in);
+                    channel.mSnapshotNeeded = true;
+                    sendUpdate(client, channel);
+                    break;
+                }
+                case MSG_FINISH:
+                    readChannel(client, in).mSession.finishIfRunning();
+                    break;
+                default:
+                    throw new IOException("Unknown message type: " + type);
+            }
+        } catch (IOException e) {
+            // Either invalid payload or an invalid request, where ByteArrayOutputStream writes never fail.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                WireFormat.writeString(out, e.getMessage());
+            } catch (IOException notThrown) {
+                throw new RuntimeException(notThrown);
+            }
+            client.send(MSG_ERROR, out.toByteArray());
+        }
+    }
+
+    /** Reject sizes the emulator cannot be resized to, or which would take unreasonable amounts of memory. */
+    private static void checkSize(int columns, int rows) throws IOException {
+        if (columns < 2 || rows < 2 || (long) columns * rows > ScreenSnapshot.MAX_CELLS)
+            throw new IOException("Invalid size: " + columns + "x" + rows);
+    }
+
+    private static Channel readChannel(Client client, InputStream in) throws IOException {
+        int id = WireFormat.readInt(in);
+        Channel channel = client.mChannels.get(id);
+        if (channel == null) throw new IOException("Not attached channel: " + id);
+        return channel;
+    }
+
+    private TerminalSession findSession(String handle) {
+        for (TerminalSession session : mService.getSessions())
+            if (session.mHandle.equals(handle)) return session;
+        return null;
+    }
+
+    private static void writeVarInts(ByteArrayOutputStream out, long... values) {
+        try {
+            for (long value : values)
+                WireFormat.writeVarInt(out, value);
+        } catch (IOException e) {
+            // Not thrown by ByteArrayOutputStream.
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -82,6 +82,7 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
 
     TermuxPreferences mSettings;
     TermuxService mTermuxService;
+    TerminalSession.SessionChangedCallback mSessionChangedCallback;
     TerminalView mTerminalView;
     TextView mClockView;
 
@@ -104,6 +105,8 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
 
     boolean mScheduleRedraw;
     boolean mShouldRedrawClock;
+    /** If between onStart() and onStop(), so that the sessions are shown. */
+    boolean mIsVisible;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -147,16 +150,29 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
     protected void onDestroy() {
         super.onDestroy();
         stopClockTask();
+        if (mTermuxService != null) {
+            mTermuxService.removeSessionChangedListener(mSessionChangedCallback);
+            mTermuxService.setViewVisible(this, false);
+        }
         unbindService(this);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        mIsVisible = true;
+        if (mTermuxService != null) mTermuxService.setViewVisible(this, true);
         mTerminalView.onScreenUpdated();
         mScheduleRedraw = true;
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mIsVisible = false;
+        if (mTermuxService != null) mTermuxService.setViewVisible(this, false);
+    }
+
     public void initializeGvrView() {
         setContentView(R.layout.vr_layout);
 
@@ -193,7 +209,7 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
         mTermuxService = ((TermuxService.LocalBinder) binder).service;
         Log.d(TAG, "Service connected");
 
-        mTermuxService.mSessionChangeCallback = new TerminalSession.SessionChangedCallback() {
+        mSessionChangedCallback = new TerminalSession.SessionChangedCallback() {
             @Override
             public void onTextChanged(TerminalSession changedSession) {
                 if (getCurrentTermSession() != changedSession) {
@@ -243,6 +259,9 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
                 if (getCurrentTermSession() == changedSession) updateBackgroundColor();
             }
         };
+        // The scene is redrawn at most once per frame anyway, so there is no need for more frequent text updates:
+        mTermuxService.addSessionChangedListener(mSessionChangedCallback, SessionChangedListeners.DISPATCH_COALESCED);
+        if (mIsVisible) mTermuxService.setViewVisible(this, true);
 
         if (mTermuxService.getSessions().isEmpty()) {
             TermuxInstaller.setupIfNeeded(TermuxVRActivity.this, new Runnable() {
@@ -401,6 +420,7 @@ public final class TermuxVRActivity extends GvrActivity implements GvrView.Stere
 
     void switchToSession(TerminalSession session) {
         if (mTerminalView.attachSession(session)) {
+            mTermuxService.onSessionViewed(session);
             updateBackgroundColor();
         }
     }
@@ -0,0 +1,26 @@
+package com.termux.terminal;
+
+/** A terminal output discarding everything written to it. */
+final class BenchmarkOutput extends TerminalOutput {
+
+    @Override
+    public void write(byte[] data, int offset, int count) {
+    }
+
+    @Override
+    public void titleChanged(String oldTitle, String newTitle) {
+    }
+
+    @Override
+    public void clipboardText(String text) {
+    }
+
+    @Override
+    public void onBell() {
+    }
+
+    @Override
+    public void onColorsChanged() {
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passing data through a {@link ByteQueue} of the size used by TerminalSession. Writing and reading happens on
+ * a single thread so that a blocked writer cannot stall the benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ByteQueueBenchmark {
+
+    @Param({"64", "1024", "4096"})
+    public int chunkSize;
+
+    private ByteQueue mQueue;
+    private byte[] mWriteBuffer;
+    private byte[] mReadBuffer;
+
+    @Setup
+    public void setUp() {
+        mQueue = new ByteQueue(4096);
+        mWriteBuffer = new byte[chunkSize];
+        mReadBuffer = new byte[4096];
+    }
+
+    @Benchmark
+    public int writeAndRead() {
+        mQueue.write(mWriteBuffer, 0, chunkSize);
+        return mQueue.read(mReadBuffer, false);
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of starting the process of a new session with {@link JNI#createSubprocess}, until it has run /bin/true and
+ * been reaped. Uses the native code built for the host by the hostLibrary task.
+ * <p>
+ * The cost of fork() grows with the memory of the calling process since its page tables are copied, which a touched
+ * ballast standing in for the heap of the app shows. With vfork() the cost does not depend on it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubprocessBenchmark {
+
+    @Param({"0", "256"})
+    public int ballastMegabytes;
+
+    private byte[][] mBallast;
+    private final int[] mProcessId = new int[1];
+
+    @Setup
+    public void setUp() {
+        mBallast = new byte[ballastMegabytes][];
+        for (int i = 0; i < ballastMegabytes; i++) {
+            mBallast[i] = new byte[1024 * 1024];
+            for (int j = 0; j < mBallast[i].length; j += 4096)
+                mBallast[i][j] = 1;
+        }
+    }
+
+    @Benchmark
+    public int createSubprocess() {
+        int fd = JNI.createSubprocess("/bin/true", "/", new String[]{"true"}, new String[]{"PATH=/usr/bin:/bin"},
+            mProcessId, 24, 80);
+        int exitCode = JNI.waitFor(mProcessId[0]);
+        JNI.close(fd);
+        return exitCode;
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Resizing and text extraction of a {@link TerminalBuffer} with a full transcript. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TerminalBufferBenchmark {
+
+    private TerminalEmulator mEmulator;
+    private boolean mResizeToWide;
+
+    @Setup
+    public void setUp() {
+        mEmulator = new TerminalEmulator(new BenchmarkOutput(), 80, 24, 2000);
+        byte[] input = Workloads.generate(Workloads.LS_COLOR);
+        mEmulator.append(input, input.length);
+    }
+
+    @Benchmark
+    public TerminalEmulator resize() {
+        // Alternate between two sizes so that each resize reflows the transcript.
+        mResizeToWide = !mResizeToWide;
+        if (mResizeToWide) {
+            mEmulator.resize(120, 40);
+        } else {
+            mEmulator.resize(80, 24);
+        }
+        return mEmulator;
+    }
+
+    @Benchmark
+    public String getSelectedText() {
+        TerminalBuffer screen = mEmulator.getScreen();
+        return screen.getSelectedText(0, -screen.getActiveTranscriptRows(), mEmulator.mColumns, mEmulator.mRows - 1);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of {@link TerminalEmulator#append(byte[], int)} for whole workloads, see {@link Workloads}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TerminalEmulatorBenchmark {
+
+    private static final int CHUNK_SIZE = 4096;
+    /** The size of the batches TerminalSession appends in background mode, being the size of its input queue. */
+    private static final int BACKGROUND_CHUNK_SIZE = 64 * 1024;
+
+    @Param({Workloads.ASCII, Workloads.SEQ, Workloads.LS_COLOR, Workloads.VIM, Workloads.CJK, Workloads.EMOJI, Workloads.BINARY})
+    public String workload;
+
+    @Param({"false", "true"})
+    public boolean fastForward;
+
+    /** The input split into chunks of the size TerminalSession reads from the pty. */
+    private byte[][] mChunks;
+    private byte[][] mBackgroundChunks;
+    private TerminalEmulator mEmulator;
+
+    @Setup
+    public void setUp() {
+        byte[] input = Workloads.generate(workload);
+        mChunks = split(input, CHUNK_SIZE);
+        mBackgroundChunks = split(input, BACKGROUND_CHUNK_SIZE);
+        mEmulator = new TerminalEmulator(new BenchmarkOutput(), 80, 24, 2000);
+        mEmulator.setFastForward(fastForward);
+    }
+
+    private static byte[][] split(byte[] input, int chunkSize) {
+        byte[][] chunks = new byte[(input.length + chunkSize - 1) / chunkSize][];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = Arrays.copyOfRange(input, i * chunkSize, Math.min(input.length, (i + 1) * chunkSize));
+        return chunks;
+    }
+
+    @Benchmark
+    public int append() {
+        for (byte[] chunk : mChunks)
+            mEmulator.append(chunk, chunk.length);
+        return mEmulator.getCursorRow();
+    }
+
+    @Benchmark
+    public int appendInBackground() {
+        for (byte[] chunk : mBackgroundChunks)
+            mEmulator.append(chunk, chunk.length);
+        return mEmulator.getCursorRow();
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Filling a whole {@link TerminalRow} using {@link TerminalRow#setChar(int, int, long)}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TerminalRowBenchmark {
+
+    private static final int COLUMNS = 80;
+
+    private TerminalRow mRow;
+
+    @Setup
+    public void setUp() {
+        mRow = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+    }
+
+    @Benchmark
+    public TerminalRow setCharAscii() {
+        for (int column = 0; column < COLUMNS; column++)
+            mRow.setChar(column, 'a' + (column % 26), TextStyle.NORMAL);
+        return mRow;
+    }
+
+    @Benchmark
+    public TerminalRow setCharWide() {
+        for (int column = 0; column < COLUMNS; column += 2)
+            mRow.setChar(column, 0x4E00 + column, TextStyle.NORMAL);
+        return mRow;
+    }
+
+    @Benchmark
+    public TerminalRow setCharAlternatingWidth() {
+        // Overwrite wide characters with narrow ones and the reverse, which shifts the rest of the row.
+        for (int column = 0; column < COLUMNS - 1; column++)
+            mRow.setChar(column, (column % 2 == 0) ? 0x4E00 : 'a', TextStyle.NORMAL);
+        return mRow;
+    }
+
+    @Benchmark
+    public TerminalRow clear() {
+        mRow.clear(TextStyle.NORMAL);
+        return mRow;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** {@link WcWidth#width(int)} over 1024 code points from different ranges. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WcWidthBenchmark {
+
+    @Param({"ascii", "latin", "cjk", "emoji"})
+    public String range;
+
+    private final int[] mCodePoints = new int[1024];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(range.hashCode());
+        for (int i = 0; i < mCodePoints.length; i++) {
+            switch (range) {
+                case "ascii":
+                    mCodePoints[i] = 32 + random.nextInt(95);
+                    break;
+                case "latin":
+                    // Including combining diacritical marks.
+                    mCodePoints[i] = 0xA0 + random.nextInt(0x300);
+                    break;
+                case "cjk":
+                    mCodePoints[i] = 0x4E00 + random.nextInt(0x5000);
+                    break;
+                default:
+                    mCodePoints[i] = 0x1F300 + random.nextInt(0x300);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public int width() {
+        int total = 0;
+        for (int codePoint : mCodePoints)
+            total += WcWidth.width(codePoint);
+        return total;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministically generated terminal output resembling common workloads, so that benchmark runs are comparable
+ * between builds.
+ */
+final class Workloads {
+
+    static final String ASCII = "ascii";
+    static final String SEQ = "seq";
+    static final String LS_COLOR = "ls";
+    static final String VIM = "vim";
+    static final String CJK = "cjk";
+    static final String EMOJI = "emoji";
+    static final String BINARY = "binary";
+
+    /** Approximate size of each generated workload. */
+    static final int SIZE = 1024 * 1024;
+
+    private static final String[] WORDS = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "terminal",
+        "emulator", "escape", "sequence", "Termux", "buffer", "render", "0123456789", "--verbose", "/usr/bin/env"};
+    private static final String[] LS_COLORS = {"0", "01;34", "01;32", "01;36", "01;31", "01;35", "40;33;01", "30;42"};
+
+    private Workloads() {
+    }
+
+    static byte[] generate(String workload) {
+        Random random = new Random(workload.hashCode());
+        StringBuilder out = new StringBuilder(SIZE);
+        switch (workload) {
+            case ASCII:
+                // Plain text lines of varying length, as from cat of a log file.
+                while (out.length() < SIZE) {
+                    int lineLength = random.nextInt(120);
+                    int lineStart = out.length();
+                    while (out.length() - lineStart < lineLength)
+                        out.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                    out.append("\r\n");
+                }
+                break;
+            case SEQ:
+                // A flood of short lines, as from "seq" or "yes".
+                for (int i = 0; out.length() < SIZE; i++)
+                    out.append(i).append("\r\n");
+                break;
+            case LS_COLOR:
+                // Colored file names in columns, as from "ls --color".
+                while (out.length() < SIZE) {
+                    for (int column = 0; column < 4; column++) {
+                        String name = WORDS[random.nextInt(WORDS.length)] + "." + random.nextInt(1000);
+                        out.append("\033[").append(LS_COLORS[random.nextInt(LS_COLORS.length)]).append('m').append(name)
+                            .append("\033[0m");
+                        for (int i = name.length(); i < 20; i++)
+                            out.append(' ');
+                    }
+                    out.append("\r\n");
+                }
+                break;
+            case VIM:
+                // Full screen redraws with cursor addressing, syntax highlighting and scrolling in a scroll region.
+                out.append("\033[?1049h\033[1;24r");
+                while (out.length() < SIZE) {
+                    for (int row = 1; row <= 23; row++) {
+                        out.append("\033[").append(row).append(";1H\033[K");
+                        out.append("\033[33m").append(String.format("%4d ", row)).append("\033[m");
+                        int words = random.nextInt(10);
+                        for (int i = 0; i < words; i++) {
+                            if (random.nextInt(4) == 0) {
+                                out.append("\033[38;5;").append(random.nextInt(256)).append('m')
+                                    .append(WORDS[random.nextInt(WORDS.length)]).append("\033[m ");
+                            } else {
+                                out.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                            }
+                        }
+                    }
+                    out.append("\033[24;1H\033[7m-- INSERT --\033[27m\033[K");
+                    out.append(random.nextBoolean() ? "\033[1;23r\033[23;1H\n\033[1;24r" : "\033[5;1H\033[3L\033[10;1H\033[2M");
+                    out.append("\033[").append(1 + random.nextInt(23)).append(';').append(1 + random.nextInt(80)).append('H');
+                }
+                out.append("\033[?1049l");
+                break;
+            case CJK:
+                // Double width characters, which need wrapping care at the end of lines.
+                while (out.length() < SIZE / 3) {
+                    int lineLength = random.nextInt(60);
+                    for (int i = 0; i < lineLength; i++)
+                        out.append((char) (0x4E00 + random.nextInt(0x5000)));
+                    out.append(random.nextInt(3) == 0 ? " ascii " : "").append("\r\n");
+                }
+                break;
+            case EMOJI:
+                // Supplementary code points (surrogate pairs in java), some with variation selectors and skin tones.
+                while (out.length() < SIZE / 2) {
+                    int lineLength = random.nextInt(40);
+                    for (int i = 0; i < lineLength; i++) {
+                        out.appendCodePoint(0x1F600 + random.nextInt(0x50));
+                        if (random.nextInt(8) == 0) out.appendCodePoint(0x1F3FB + random.nextInt(5));
+                        if (random.nextInt(8) == 0) out.append('\uFE0F');
+                        if (random.nextInt(4) == 0) out.append(' ');
+                    }
+                    out.append("\r\n");
+                }
+                break;
+            case BINARY:
+                // Random bytes, as from cat of a binary file.
+                byte[] result = new byte[SIZE];
+                random.nextBytes(result);
+                return result;
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + workload);
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental base64 decoder used for OSC 52 clipboard payloads, which are decoded as they arrive instead of first
+ * being collected as text.
+ * <p>
+ * Like android.util.Base64 characters outside of the base64 alphabet (such as line breaks) are skipped. The output
+ * buffer is reused between payloads and grows up to the limit given in {@link #reset(int)}.
+ */
+final class Base64Decoder {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Maps a char to its 6-bit value, or -1 if not part of the base64 alphabet. */
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++)
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+    }
+
+    private byte[] mOutput = new byte[INITIAL_CAPACITY];
+    private int mOutputLength;
+    private int mMaxOutputLength;
+    /** Decoded bits not yet making up a full byte, in the lowest {@link #mBitCount} bits. */
+    private int mBits;
+    private int mBitCount;
+    private boolean mPaddingSeen;
+    private boolean mFailed;
+
+    /** Prepare for decoding a new payload of at most maxOutputLength decoded bytes. */
+    void reset(int maxOutputLength) {
+        mMaxOutputLength = maxOutputLength;
+        mOutputLength = 0;
+        mBits = 0;
+        mBitCount = 0;
+        mPaddingSeen = false;
+        mFailed = false;
+    }
+
+    /** Decode the next input character. Once the input has failed all further input is ignored. */
+    void decode(int c) {
+        if (mFailed) return;
+        if (c == '=') {
+            mPaddingSeen = true;
+            return;
+        }
+        int value = (c >= 0 && c < 128) ? DECODE_TABLE[c] : -1;
+        if (value < 0) return;
+        if (mPaddingSeen) {
+            // Data after padding.
+            mFailed = true;
+            return;
+        }
+
+        mBits = (mBits << 6) | value;
+        mBitCount += 6;
+        if (mBitCount >= 8) {
+            mBitCount -= 8;
+            if (mOutputLength == mMaxOutputLength) {
+                mFailed = true;
+                return;
+            }
+            if (mOutputLength == mOutput.length)
+                mOutput = Arrays.copyOf(mOutput, Math.min(mOutput.length * 2, mMaxOutputLength));
+            mOutput[mOutputLength++] = (byte) (mBits >> mBitCount);
+            mBits &= (1 << mBitCount) - 1;
+        }
+    }
+
+    /** Return the UTF-8 text decoded since the last {@link #reset(int)}, or null if the input was invalid or too long. */
+    String finish() {
+        // A single trailing character does not make up a byte.
+        if (mFailed || mBitCount == 6) return null;
+        return new String(mOutput, 0, mOutputLength, StandardCharsets.UTF_8);
+    }
+
+}
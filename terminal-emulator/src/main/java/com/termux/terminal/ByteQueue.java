@@ -1,23 +1,105 @@
 package com.termux.terminal;
 
-/** A circular byte buffer allowing one producer and one consumer thread. */
+/**
+ * A circular byte buffer allowing one producer and one consumer thread.
+ * <p/>
+ * Besides copying in and out, either side may work in place on the backing {@link #array()}: the producer fills the
+ * free region at {@link #writeOffset()} and then calls {@link #commitWrite(int)}, and the consumer uses the stored
+ * region at {@link #readOffset()} and then calls {@link #commitRead(int)}. Until committed, the other side does not
+ * touch the region.
+ */
 final class ByteQueue {
 
     private final byte[] mBuffer;
     private int mHead;
     private int mStoredBytes;
     private boolean mOpen = true;
+    private int mWriteStalls;
 
     public ByteQueue(int size) {
         mBuffer = new byte[size];
     }
 
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /** The number of times a write has blocked since the queue was full. */
+    public synchronized int getWriteStalls() {
+        return mWriteStalls;
+    }
+
+    /** The number of bytes which can be read without blocking. */
+    public synchronized int available() {
+        return mStoredBytes;
+    }
+
+    /** The backing array, for use in place together with the offsets and commits. */
+    public byte[] array() {
+        return mBuffer;
+    }
+
+    /** Where the stored bytes start in {@link #array()}. */
+    public synchronized int readOffset() {
+        return mHead;
+    }
+
+    /** The number of stored bytes from {@link #readOffset()} up to the end of the array, or -1 if closed. */
+    public synchronized int readableLength() {
+        if (!mOpen) return -1;
+        return Math.min(mStoredBytes, mBuffer.length - mHead);
+    }
+
+    /** Free the first length bytes of the readable region after using them in place. */
+    public synchronized void commitRead(int length) {
+        if (length <= 0 || length > Math.min(mStoredBytes, mBuffer.length - mHead))
+            throw new IllegalArgumentException("Invalid length: " + length);
+        boolean wasFull = mBuffer.length == mStoredBytes;
+        mHead += length;
+        if (mHead == mBuffer.length) mHead = 0;
+        mStoredBytes -= length;
+        if (wasFull) notify();
+    }
+
+    /** Where the free space starts in {@link #array()}. */
+    public synchronized int writeOffset() {
+        int tail = mHead + mStoredBytes;
+        return (tail >= mBuffer.length) ? tail - mBuffer.length : tail;
+    }
+
+    /**
+     * The number of free bytes from {@link #writeOffset()} up to the end of the free space or the array, or -1 if
+     * closed. Having no free space counts as a write stall, see {@link #getWriteStalls()}.
+     */
+    public synchronized int writableLength() {
+        if (!mOpen) return -1;
+        int tail = mHead + mStoredBytes;
+        int length = (tail >= mBuffer.length) ? mHead - (tail - mBuffer.length) : mBuffer.length - tail;
+        if (length == 0) mWriteStalls++;
+        return length;
+    }
+
+    /** Store the first length bytes of the writable region after filling them in place. */
+    public synchronized void commitWrite(int length) {
+        int tail = mHead + mStoredBytes;
+        int writable = (tail >= mBuffer.length) ? mHead - (tail - mBuffer.length) : mBuffer.length - tail;
+        if (length <= 0 || length > writable) throw new IllegalArgumentException("Invalid length: " + length);
+        boolean wasEmpty = mStoredBytes == 0;
+        mStoredBytes += length;
+        if (wasEmpty) notify();
+    }
+
     public synchronized void close() {
         mOpen = false;
         notify();
     }
 
-    public synchronized int read(byte[] buffer, boolean block) {
+    public int read(byte[] buffer, boolean block) {
+        return read(buffer, buffer.length, block);
+    }
+
+    /** Read at most length bytes into the start of the buffer. */
+    public synchronized int read(byte[] buffer, int length, boolean block) {
         while (mStoredBytes == 0 && mOpen) {
             if (block) {
                 try {
@@ -34,7 +116,6 @@ final class ByteQueue {
         int totalRead = 0;
         int bufferLength = mBuffer.length;
         boolean wasFull = bufferLength == mStoredBytes;
-        int length = buffer.length;
         int offset = 0;
         while (length > 0 && mStoredBytes > 0) {
             int oneRun = Math.min(bufferLength - mHead, mStoredBytes);
@@ -57,17 +138,11 @@ final class ByteQueue {
      * Returns whether the output was totally written, false if it was closed before.
      */
     public boolean write(byte[] buffer, int offset, int lengthToWrite) {
-        if (lengthToWrite + offset > buffer.length) {
-            throw new IllegalArgumentException("length + offset > buffer.length");
-        } else if (lengthToWrite <= 0) {
-            throw new IllegalArgumentException("length <= 0");
-        }
-
-        final int bufferLength = mBuffer.length;
-
+        checkBounds(buffer, offset, lengthToWrite);
         synchronized (this) {
             while (lengthToWrite > 0) {
-                while (bufferLength == mStoredBytes && mOpen) {
+                if (mBuffer.length == mStoredBytes && mOpen) mWriteStalls++;
+                while (mBuffer.length == mStoredBytes && mOpen) {
                     try {
                         wait();
                     } catch (InterruptedException e) {
@@ -75,34 +150,50 @@ final class ByteQueue {
                     }
                 }
                 if (!mOpen) return false;
-                final boolean wasEmpty = mStoredBytes == 0;
-                int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
-                lengthToWrite -= bytesToWriteBeforeWaiting;
-
-                while (bytesToWriteBeforeWaiting > 0) {
-                    int tail = mHead + mStoredBytes;
-                    int oneRun;
-                    if (tail >= bufferLength) {
-                        // Buffer: [.............]
-                        // ________________H_______T
-                        // =>
-                        // Buffer: [.............]
-                        // ___________T____H
-                        // onRun= _____----_
-                        tail = tail - bufferLength;
-                        oneRun = mHead - tail;
-                    } else {
-                        oneRun = bufferLength - tail;
-                    }
-                    int bytesToCopy = Math.min(oneRun, bytesToWriteBeforeWaiting);
-                    System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
-                    offset += bytesToCopy;
-                    bytesToWriteBeforeWaiting -= bytesToCopy;
-                    mStoredBytes += bytesToCopy;
-                }
-                if (wasEmpty) notify();
+                int written = copyIn(buffer, offset, lengthToWrite);
+                offset += written;
+                lengthToWrite -= written;
             }
         }
         return true;
     }
+
+    private static void checkBounds(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+    }
+
+    /** Copy as much as there is room for into the queue, returning the bytes copied. Must hold the lock. */
+    private int copyIn(byte[] buffer, int offset, int lengthToWrite) {
+        final int bufferLength = mBuffer.length;
+        final boolean wasEmpty = mStoredBytes == 0;
+        final int bytesToWriteBeforeWaiting = Math.min(lengthToWrite, bufferLength - mStoredBytes);
+        int bytesLeft = bytesToWriteBeforeWaiting;
+        while (bytesLeft > 0) {
+            int tail = mHead + mStoredBytes;
+            int oneRun;
+            if (tail >= bufferLength) {
+                // Buffer: [.............]
+                // ________________H_______T
+                // =>
+                // Buffer: [.............]
+                // ___________T____H
+                // onRun= _____----_
+                tail = tail - bufferLength;
+                oneRun = mHead - tail;
+            } else {
+                oneRun = bufferLength - tail;
+            }
+            int bytesToCopy = Math.min(oneRun, bytesLeft);
+            System.arraycopy(buffer, offset, mBuffer, tail, bytesToCopy);
+            offset += bytesToCopy;
+            bytesLeft -= bytesToCopy;
+            mStoredBytes += bytesToCopy;
+        }
+        if (wasEmpty && bytesToWriteBeforeWaiting > 0) notify();
+        return bytesToWriteBeforeWaiting;
+    }
 }
@@ -1,10 +1,47 @@
 package com.termux.terminal;
 
-import android.util.Log;
-
 public final class EmulatorDebug {
 
-    /** The tag to use with {@link Log}. */
+    /** The tag to use with android.util.Log. */
     public static final String LOG_TAG = "termux";
 
+    /**
+     * Receives the log messages of the emulation classes, which do not depend on any platform logging so that they can
+     * be used on a plain JVM. {@link TerminalSession} installs one logging to android.util.Log.
+     */
+    public interface Logger {
+        void logWarning(String tag, String message);
+
+        void logError(String tag, String message);
+    }
+
+    /** The default logger, discarding all messages. */
+    private static final Logger NO_LOGGER = new Logger() {
+        @Override
+        public void logWarning(String tag, String message) {
+        }
+
+        @Override
+        public void logError(String tag, String message) {
+        }
+    };
+
+    private static volatile Logger sLogger = NO_LOGGER;
+
+    private EmulatorDebug() {
+    }
+
+    /** Set the logger to use, or null to discard log messages. */
+    public static void setLogger(Logger logger) {
+        sLogger = (logger == null) ? NO_LOGGER : logger;
+    }
+
+    static void logWarning(String message) {
+        sLogger.logWarning(LOG_TAG, message);
+    }
+
+    static void logError(String message) {
+        sLogger.logError(LOG_TAG, message);
+    }
+
 }
@@ -28,10 +28,77 @@ final class JNI {
     /** Set the window size for a given pty, which allows connected programs to learn how large their screen is. */
     public static native void setPtyWindowSize(int fd, int rows, int cols);
 
+    /** Event flags for {@link #epollControl(int, int, int, int)} and {@link #epollWait(int, int[], int[], int)}. */
+    public static final int EPOLLIN = 0x001;
+    public static final int EPOLLOUT = 0x004;
+    public static final int EPOLLERR = 0x008;
+    public static final int EPOLLHUP = 0x010;
+
+    /** Operations for {@link #epollControl(int, int, int, int)}. */
+    public static final int EPOLL_CTL_ADD = 1;
+    public static final int EPOLL_CTL_DEL = 2;
+    public static final int EPOLL_CTL_MOD = 3;
+
+    /** Create an epoll instance through the epoll_create1(2) system call. Callers are responsible for closing it. */
+    public static native int epollCreate();
+
+    /** Add, modify or remove the events of interest for a file descriptor through the epoll_ctl(2) system call. */
+    public static native void epollControl(int epollFd, int operation, int fd, int events);
+
+    /**
+     * Wait for events on an epoll instance through the epoll_wait(2) system call.
+     *
+     * @param fds           Receives the file descriptors which are ready, at most as many as the array length.
+     * @param events        Receives the ready events of each file descriptor in fds.
+     * @param timeoutMillis How long to wait, or -1 to wait until an event.
+     * @return the number of ready file descriptors, 0 on timeout.
+     */
+    public static native int epollWait(int epollFd, int[] fds, int[] events, int timeoutMillis);
+
+    /** Create a non-blocking file descriptor through the eventfd(2) system call, used to wake up an epoll_wait(2). */
+    public static native int createEventFd();
+
+    /** Set the O_NONBLOCK flag of a file descriptor. */
+    public static native void setNonBlocking(int fd);
+
+    /**
+     * Read from a non-blocking file descriptor straight into the array, without copying through a native buffer.
+     *
+     * @return the number of bytes read, 0 if none are available or -1 on end of file or error. A pseudoterminal master
+     * fails with EIO once no process has the slave device open anymore.
+     */
+    public static native int read(int fd, byte[] buffer, int offset, int length);
+
+    /**
+     * Write to a non-blocking file descriptor straight from the array, without copying through a native buffer.
+     *
+     * @return the number of bytes written, 0 if it would block or -1 on error.
+     */
+    public static native int write(int fd, byte[] buffer, int offset, int length);
+
+    /**
+     * Wait for any child process to exit without reaping it, through waitid(P_ALL, ..., WEXITED | WNOWAIT), so that
+     * children owned by someone else, such as a {@link java.lang.Process}, are still left to their owner.
+     *
+     * @return the process ID of an exited child, or -1 if there are no children.
+     */
+    public static native int waitForAnyChild();
+
+    /** Returned by {@link #tryWaitFor(int)} if the process has not exited. */
+    public static final int STILL_RUNNING = Integer.MIN_VALUE;
+
+    /**
+     * Reap the process if it has exited, without blocking, through waitpid(2) with WNOHANG.
+     *
+     * @return the exit status as from {@link #waitFor(int)}, or {@link #STILL_RUNNING} if the process has not exited.
+     */
+    public static native int tryWaitFor(int processId);
+
     /**
      * Causes the calling thread to wait for the process associated with the receiver to finish executing.
      *
-     * @return if >= 0, the exit status of the process. If < 0, the signal causing the process to stop negated.
+     * @return if >= 0, the exit status of the process. If < 0, the signal causing the process to stop negated. 0 if the
+     * process has already been reaped by someone else, so that its status is lost.
      */
     public static native int waitFor(int processId);
 
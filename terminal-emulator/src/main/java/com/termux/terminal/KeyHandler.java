@@ -3,56 +3,56 @@ package com.termux.terminal;
 import java.util.HashMap;
 import java.util.Map;
 
-import static android.view.KeyEvent.KEYCODE_BACK;
-import static android.view.KeyEvent.KEYCODE_BREAK;
-import static android.view.KeyEvent.KEYCODE_DEL;
-import static android.view.KeyEvent.KEYCODE_DPAD_CENTER;
-import static android.view.KeyEvent.KEYCODE_DPAD_DOWN;
-import static android.view.KeyEvent.KEYCODE_DPAD_LEFT;
-import static android.view.KeyEvent.KEYCODE_DPAD_RIGHT;
-import static android.view.KeyEvent.KEYCODE_DPAD_UP;
-import static android.view.KeyEvent.KEYCODE_ENTER;
-import static android.view.KeyEvent.KEYCODE_ESCAPE;
-import static android.view.KeyEvent.KEYCODE_F1;
-import static android.view.KeyEvent.KEYCODE_F10;
-import static android.view.KeyEvent.KEYCODE_F11;
-import static android.view.KeyEvent.KEYCODE_F12;
-import static android.view.KeyEvent.KEYCODE_F2;
-import static android.view.KeyEvent.KEYCODE_F3;
-import static android.view.KeyEvent.KEYCODE_F4;
-import static android.view.KeyEvent.KEYCODE_F5;
-import static android.view.KeyEvent.KEYCODE_F6;
-import static android.view.KeyEvent.KEYCODE_F7;
-import static android.view.KeyEvent.KEYCODE_F8;
-import static android.view.KeyEvent.KEYCODE_F9;
-import static android.view.KeyEvent.KEYCODE_FORWARD_DEL;
-import static android.view.KeyEvent.KEYCODE_INSERT;
-import static android.view.KeyEvent.KEYCODE_MOVE_END;
-import static android.view.KeyEvent.KEYCODE_MOVE_HOME;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_0;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_1;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_2;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_3;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_4;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_5;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_6;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_7;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_8;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_9;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_ADD;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_COMMA;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_DIVIDE;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_DOT;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_ENTER;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_EQUALS;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_MULTIPLY;
-import static android.view.KeyEvent.KEYCODE_NUMPAD_SUBTRACT;
-import static android.view.KeyEvent.KEYCODE_NUM_LOCK;
-import static android.view.KeyEvent.KEYCODE_PAGE_DOWN;
-import static android.view.KeyEvent.KEYCODE_PAGE_UP;
-import static android.view.KeyEvent.KEYCODE_SPACE;
-import static android.view.KeyEvent.KEYCODE_SYSRQ;
-import static android.view.KeyEvent.KEYCODE_TAB;
+import static com.termux.terminal.KeyCodes.KEYCODE_BACK;
+import static com.termux.terminal.KeyCodes.KEYCODE_BREAK;
+import static com.termux.terminal.KeyCodes.KEYCODE_DEL;
+import static com.termux.terminal.KeyCodes.KEYCODE_DPAD_CENTER;
+import static com.termux.terminal.KeyCodes.KEYCODE_DPAD_DOWN;
+import static com.termux.terminal.KeyCodes.KEYCODE_DPAD_LEFT;
+import static com.termux.terminal.KeyCodes.KEYCODE_DPAD_RIGHT;
+import static com.termux.terminal.KeyCodes.KEYCODE_DPAD_UP;
+import static com.termux.terminal.KeyCodes.KEYCODE_ENTER;
+import static com.termux.terminal.KeyCodes.KEYCODE_ESCAPE;
+import static com.termux.terminal.KeyCodes.KEYCODE_F1;
+import static com.termux.terminal.KeyCodes.KEYCODE_F10;
+import static com.termux.terminal.KeyCodes.KEYCODE_F11;
+import static com.termux.terminal.KeyCodes.KEYCODE_F12;
+import static com.termux.terminal.KeyCodes.KEYCODE_F2;
+import static com.termux.terminal.KeyCodes.KEYCODE_F3;
+import static com.termux.terminal.KeyCodes.KEYCODE_F4;
+import static com.termux.terminal.KeyCodes.KEYCODE_F5;
+import static com.termux.terminal.KeyCodes.KEYCODE_F6;
+import static com.termux.terminal.KeyCodes.KEYCODE_F7;
+import static com.termux.terminal.KeyCodes.KEYCODE_F8;
+import static com.termux.terminal.KeyCodes.KEYCODE_F9;
+import static com.termux.terminal.KeyCodes.KEYCODE_FORWARD_DEL;
+import static com.termux.terminal.KeyCodes.KEYCODE_INSERT;
+import static com.termux.terminal.KeyCodes.KEYCODE_MOVE_END;
+import static com.termux.terminal.KeyCodes.KEYCODE_MOVE_HOME;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_0;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_1;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_2;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_3;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_4;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_5;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_6;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_7;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_8;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_9;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_ADD;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_COMMA;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_DIVIDE;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_DOT;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_ENTER;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_EQUALS;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_MULTIPLY;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUMPAD_SUBTRACT;
+import static com.termux.terminal.KeyCodes.KEYCODE_NUM_LOCK;
+import static com.termux.terminal.KeyCodes.KEYCODE_PAGE_DOWN;
+import static com.termux.terminal.KeyCodes.KEYCODE_PAGE_UP;
+import static com.termux.terminal.KeyCodes.KEYCODE_SPACE;
+import static com.termux.terminal.KeyCodes.KEYCODE_SYSRQ;
+import static com.termux.terminal.KeyCodes.KEYCODE_TAB;
 
 public final class KeyHandler {
 
@@ -0,0 +1,391 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Services the pseudoterminals of all sessions with two threads, instead of a reader, writer and waiter thread for each
+ * session:
+ * <ul>
+ * <li>An I/O thread waits with epoll for output from any process, which it reads in place into the
+ * {@link TerminalSession#mProcessToTerminalIOQueue} of the session, and writes the
+ * {@link TerminalSession#mTerminalToProcessIOQueue} and {@link TerminalSession#mPendingOutput} of each session to its
+ * process.</li>
+ * <li>A reaper thread waits for any child process to exit without reaping it, and then reaps the exited processes of
+ * sessions by their process ids, so that children of others, such as a {@link java.lang.Process}, are left to their
+ * owners. The exit is noticed even if a background job keeps the pseudoterminal open. The I/O thread then reads the
+ * output of the process until the pseudoterminal hangs up or no more is available, before reporting the exit to the
+ * session.</li>
+ * </ul>
+ * <p/>
+ * The file descriptors of sessions are only read, written and closed on the I/O thread. Other threads ask it to act on
+ * a session with {@link #requestUpdate(Channel)}, which wakes it up through an eventfd.
+ */
+final class PtyMultiplexer {
+
+    /** The pseudoterminal of a session. Fields are only accessed on the I/O thread unless noted otherwise. */
+    static final class Channel {
+        final TerminalSession mSession;
+        final int mFd;
+        final int mPid;
+
+        /** Set while reading waits for the main thread to make room in the queue. Read by the main thread. */
+        volatile boolean mInputPaused;
+        /** If the process cannot be read from anymore, after which the channel is removed from epoll. */
+        boolean mInputEnded;
+
+        /** If the process was not ready for more output, so that writing waits for epoll. */
+        boolean mOutputBlocked;
+        /** How much of the first {@link TerminalSession#mPendingOutput} array has been written. */
+        int mPendingOffset;
+        /** If the process cannot be written to anymore, after which output is discarded. */
+        boolean mOutputFailed;
+
+        /** The events registered with epoll, or -1 if not registered. */
+        int mEvents = -1;
+        /** If the file descriptor has been closed. */
+        boolean mClosed;
+
+        /** If the process has exited, after which the remaining input is read before reporting it to the session. */
+        boolean mDraining;
+        int mExitCode;
+        boolean mExitReported;
+
+        /** Guarded by the multiplexer. */
+        boolean mUpdateRequested;
+        /** Guarded by the multiplexer. */
+        boolean mCloseRequested;
+        /** Guarded by the multiplexer. Set by the reaper thread. */
+        boolean mExited;
+        /** Guarded by the multiplexer. Set by the reaper thread. */
+        int mReapedExitCode;
+
+        Channel(TerminalSession session, int fd, int pid) {
+            mSession = session;
+            mFd = fd;
+            mPid = pid;
+        }
+    }
+
+    /**
+     * How long the reaper waits before looking again when the exited child is not of a registered session. That is a
+     * child of someone else until its owner reaps it, or a session which was just spawned and is about to be registered,
+     * which wakes the reaper up early.
+     */
+    private static final int UNKNOWN_CHILD_WAIT_MILLIS = 10;
+
+    private static PtyMultiplexer sInstance;
+
+    private final int mEpollFd;
+    private final int mWakeUpFd;
+    /** Eight bytes since an eventfd is read and written as an unsigned 64-bit integer. */
+    private final byte[] mWakeUpBuffer = {1, 0, 0, 0, 0, 0, 0, 0};
+
+    /** Channels by file descriptor. Only accessed on the I/O thread. */
+    private final Map<Integer, Channel> mChannels = new HashMap<>();
+    /** Channels to update on the I/O thread, see {@link #requestUpdate(Channel)}. Guarded by this. */
+    private ArrayList<Channel> mRequests = new ArrayList<>();
+    /** Channels of running processes by process id. Guarded by itself. */
+    private final Map<Integer, Channel> mChildren = new HashMap<>();
+
+    /** The multiplexer shared by all sessions, started when first used. */
+    static synchronized PtyMultiplexer get() {
+        if (sInstance == null) sInstance = new PtyMultiplexer();
+        return sInstance;
+    }
+
+    private PtyMultiplexer() {
+        mEpollFd = JNI.epollCreate();
+        mWakeUpFd = JNI.createEventFd();
+        JNI.epollControl(mEpollFd, JNI.EPOLL_CTL_ADD, mWakeUpFd, JNI.EPOLLIN);
+
+        Thread ioThread = new Thread("TermSessionIO") {
+            @Override
+            public void run() {
+                runIO();
+            }
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        Thread reaperThread = new Thread("TermSessionReaper") {
+            @Override
+            public void run() {
+                runReaper();
+            }
+        };
+        reaperThread.setDaemon(true);
+        reaperThread.start();
+    }
+
+    /** Start servicing the pseudoterminal of a session and waiting for its process to exit. */
+    Channel register(TerminalSession session, int fd, int pid) {
+        JNI.setNonBlocking(fd);
+        Channel channel = new Channel(session, fd, pid);
+        synchronized (mChildren) {
+            mChildren.put(pid, channel);
+            mChildren.notify();
+        }
+        requestUpdate(channel);
+        return channel;
+    }
+
+    /** Called after the main thread has taken input from the queue, to resume reading if it was full. */
+    void inputTaken(Channel channel) {
+        if (channel.mInputPaused) requestUpdate(channel);
+    }
+
+    /** Called after writing to the queue of output to the process. */
+    void outputQueued(Channel channel) {
+        requestUpdate(channel);
+    }
+
+    /** Stop servicing the pseudoterminal and close it. */
+    void close(Channel channel) {
+        synchronized (this) {
+            channel.mCloseRequested = true;
+        }
+        requestUpdate(channel);
+    }
+
+    /** Called on the reaper thread. */
+    private void processExited(Channel channel, int exitCode) {
+        synchronized (this) {
+            channel.mExited = true;
+            channel.mReapedExitCode = exitCode;
+        }
+        requestUpdate(channel);
+    }
+
+    private void requestUpdate(Channel channel) {
+        synchronized (this) {
+            if (channel.mUpdateRequested) return;
+            channel.mUpdateRequested = true;
+            mRequests.add(channel);
+        }
+        JNI.write(mWakeUpFd, mWakeUpBuffer, 0, mWakeUpBuffer.length);
+    }
+
+    private void runIO() {
+        final int[] readyFds = new int[32];
+        final int[] readyEvents = new int[32];
+        final byte[] wakeUpBuffer = new byte[8];
+        ArrayList<Channel> requests = new ArrayList<>();
+        while (true) {
+            int count = JNI.epollWait(mEpollFd, readyFds, readyEvents, -1);
+            for (int i = 0; i < count; i++) {
+                if (readyFds[i] == mWakeUpFd) {
+                    JNI.read(mWakeUpFd, wakeUpBuffer, 0, wakeUpBuffer.length);
+                    continue;
+                }
+                Channel channel = mChannels.get(readyFds[i]);
+                if (channel == null) continue;
+                int events = readyEvents[i];
+                if ((events & (JNI.EPOLLIN | JNI.EPOLLHUP | JNI.EPOLLERR)) != 0) readInput(channel);
+                if ((events & (JNI.EPOLLOUT | JNI.EPOLLHUP | JNI.EPOLLERR)) != 0) writeOutput(channel);
+                updateEvents(channel);
+            }
+
+            // Requests are taken after reading the eventfd, so a request added after this wakes up the next wait.
+            ArrayList<Channel> newRequests;
+            synchronized (this) {
+                newRequests = mRequests;
+                mRequests = requests;
+                for (Channel channel : newRequests)
+                    channel.mUpdateRequested = false;
+            }
+            requests = newRequests;
+            for (Channel channel : requests) {
+                boolean closeRequested;
+                synchronized (this) {
+                    closeRequested = channel.mCloseRequested;
+                    if (channel.mExited && !channel.mDraining) {
+                        channel.mDraining = true;
+                        channel.mExitCode = channel.mReapedExitCode;
+                    }
+                }
+                if (channel.mClosed) {
+                    continue;
+                } else if (closeRequested) {
+                    if (channel.mEvents != -1) JNI.epollControl(mEpollFd, JNI.EPOLL_CTL_DEL, channel.mFd, 0);
+                    channel.mEvents = -1;
+                    mChannels.remove(channel.mFd);
+                    JNI.close(channel.mFd);
+                    channel.mClosed = true;
+                } else {
+                    mChannels.put(channel.mFd, channel);
+                    // Resume reading if waiting for room in the queue, and write output right away instead of waiting
+                    // for epoll:
+                    if (channel.mInputPaused || channel.mDraining) readInput(channel);
+                    writeOutput(channel);
+                    updateEvents(channel);
+                    // Report the exit only after all output of the process has been queued, since the session stops
+                    // processing input when notified:
+                    if (channel.mDraining && !channel.mInputPaused && !channel.mExitReported) {
+                        channel.mExitReported = true;
+                        channel.mSession.onProcessExited(channel.mExitCode);
+                    }
+                }
+            }
+            requests.clear();
+        }
+    }
+
+    /**
+     * Read input from the process straight into the queue of the session, until no more is available or the queue is
+     * full. Low priority sessions only get one read per event, so that other sessions are serviced first.
+     */
+    private static void readInput(Channel channel) {
+        TerminalSession session = channel.mSession;
+        ByteQueue queue = session.mProcessToTerminalIOQueue;
+        boolean queued = false;
+        while (!channel.mInputEnded) {
+            // Set before checking for room so that the main thread sees it if taking from the queue after the check:
+            channel.mInputPaused = true;
+            int length = queue.writableLength();
+            if (length < 0) {
+                // The queue is closed since the session has finished.
+                channel.mInputEnded = true;
+                break;
+            }
+            if (length == 0) break;
+            channel.mInputPaused = false;
+
+            int bytesRead = JNI.read(channel.mFd, queue.array(), queue.writeOffset(), length);
+            if (bytesRead == 0) break;
+            if (bytesRead < 0) {
+                channel.mInputEnded = true;
+                break;
+            }
+            queue.commitWrite(bytesRead);
+            queued = true;
+            if (session.mLowPriority && !channel.mDraining) break;
+        }
+        if (queued) session.onProcessOutput();
+    }
+
+    /**
+     * Write output straight from the queue of the session and then from its pending output to the process, until there
+     * is no more or the process is not ready.
+     */
+    private static void writeOutput(Channel channel) {
+        TerminalSession session = channel.mSession;
+        ByteQueue queue = session.mTerminalToProcessIOQueue;
+        channel.mOutputBlocked = false;
+        while (true) {
+            byte[] pending = null;
+            synchronized (session.mPendingOutput) {
+                // Pending output was written by the session after all in the queue, see TerminalSession#write().
+                if (queue.available() == 0) {
+                    pending = session.mPendingOutput.peek();
+                    if (pending == null) return;
+                }
+            }
+            byte[] array = (pending == null) ? queue.array() : pending;
+            int offset = (pending == null) ? queue.readOffset() : channel.mPendingOffset;
+            int length = (pending == null) ? queue.readableLength() : pending.length - offset;
+            if (length < 0) return;
+
+            if (!channel.mOutputFailed) {
+                int written = JNI.write(channel.mFd, array, offset, length);
+                if (written == 0) {
+                    channel.mOutputBlocked = true;
+                    return;
+                } else if (written < 0) {
+                    channel.mOutputFailed = true;
+                } else {
+                    length = written;
+                }
+            }
+            // If failed, discard the output since the process cannot read it anymore.
+            if (pending == null) {
+                queue.commitRead(length);
+            } else {
+                channel.mPendingOffset += length;
+                if (channel.mPendingOffset == pending.length) {
+                    channel.mPendingOffset = 0;
+                    synchronized (session.mPendingOutput) {
+                        session.mPendingOutput.poll();
+                        session.mPendingOutputBytes -= pending.length;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Register the events the channel waits for with epoll, or remove it while waiting for none. A hung up
+     * pseudoterminal reports EPOLLHUP regardless of the registered events, which would otherwise wake up epoll over
+     * and over while the channel waits for room in the queue or after the input has ended.
+     */
+    private void updateEvents(Channel channel) {
+        // Writes to a pseudoterminal which has been hung up fail with EIO anyway.
+        if (channel.mInputEnded) channel.mOutputFailed = true;
+        int events = 0;
+        if (!channel.mInputPaused && !channel.mInputEnded) events |= JNI.EPOLLIN;
+        if (channel.mOutputBlocked) events |= JNI.EPOLLOUT;
+        if (events == 0) {
+            if (channel.mEvents != -1) JNI.epollControl(mEpollFd, JNI.EPOLL_CTL_DEL, channel.mFd, 0);
+            channel.mEvents = -1;
+            return;
+        } else if (channel.mEvents == -1) {
+            JNI.epollControl(mEpollFd, JNI.EPOLL_CTL_ADD, channel.mFd, events);
+        } else if (events != channel.mEvents) {
+            JNI.epollControl(mEpollFd, JNI.EPOLL_CTL_MOD, channel.mFd, events);
+        }
+        channel.mEvents = events;
+    }
+
+    private void runReaper() {
+        while (true) {
+            synchronized (mChildren) {
+                while (mChildren.isEmpty()) {
+                    try {
+                        mChildren.wait();
+                    } catch (InterruptedException e) {
+                        // Ignore.
+                    }
+                }
+            }
+
+            // Only tells that some child has exited, which is then left as is if not of a session:
+            JNI.waitForAnyChild();
+            if (!reapExitedChildren()) {
+                synchronized (mChildren) {
+                    try {
+                        mChildren.wait(UNKNOWN_CHILD_WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        // Ignore.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reap the exited processes of sessions by their process ids. A process which has been reaped by someone else is
+     * reported as exited as well, with its exit status lost.
+     *
+     * @return if any process was reaped.
+     */
+    private boolean reapExitedChildren() {
+        ArrayList<Channel> exited = new ArrayList<>();
+        ArrayList<Integer> exitCodes = new ArrayList<>();
+        synchronized (mChildren) {
+            for (Iterator<Channel> iterator = mChildren.values().iterator(); iterator.hasNext(); ) {
+                Channel channel = iterator.next();
+                int exitCode = JNI.tryWaitFor(channel.mPid);
+                if (exitCode == JNI.STILL_RUNNING) continue;
+                iterator.remove();
+                exited.add(channel);
+                exitCodes.add(exitCode);
+            }
+        }
+        for (int i = 0; i < exited.size(); i++)
+            processExited(exited.get(i), exitCodes.get(i));
+        return !exited.isEmpty();
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Produces compact deltas between frames of the screen of a {@link TerminalEmulator}, so that a view in another process
+ * can be kept in sync without sending the whole screen on every change.
+ * <p>
+ * Changes are found without comparing text by the version of each {@link TerminalRow}, which is incremented on every
+ * change of the row. Since scrolling moves the row objects in the ring buffer of {@link TerminalBuffer}, a row with the
+ * same object and version as a row in the previous frame is unchanged, and is sent as a move if its position differs.
+ * <p>
+ * A delta is a sequence of operations, each a type byte followed by its values written with {@link WireFormat}:
+ * <ul>
+ * <li>{@link #OP_SIZE}: The columns and rows of a new screen, with every line following as {@link #OP_LINE}. Starts the
+ * first delta and the deltas after a resize or {@link #reset()}.</li>
+ * <li>{@link #OP_MOVE}: The source row, destination row and number of lines to move. Source rows refer to the previous
+ * frame, so the moves of a delta do not affect each other.</li>
+ * <li>{@link #OP_LINE}: The row and content of a changed line, in the line format of {@link ScreenSnapshot}.</li>
+ * <li>{@link #OP_CURSOR}: The cursor row, column and if it is visible.</li>
+ * <li>{@link #OP_TITLE}: The new title, empty if none.</li>
+ * <li>{@link #OP_END}: The end of the delta.</li>
+ * </ul>
+ */
+public final class ScreenDiffer {
+
+    static final int OP_END = 0;
+    static final int OP_SIZE = 1;
+    static final int OP_MOVE = 2;
+    static final int OP_LINE = 3;
+    static final int OP_CURSOR = 4;
+    static final int OP_TITLE = 5;
+
+    /** Marks a row in {@link #mSources} as changed. */
+    private static final int CHANGED = -1;
+
+    private final TerminalEmulator mEmulator;
+
+    /** The rows of the previous frame, or null if no frame has been produced since creation or {@link #reset()}. */
+    private TerminalRow[] mRows;
+    private long[] mVersions;
+    private int mColumns;
+    private int mCursorRow, mCursorCol;
+    private boolean mCursorVisible;
+    private String mTitle;
+
+    /** The row of the previous frame each row of the current one is unchanged from, or {@link #CHANGED}. */
+    private int[] mSources = new int[0];
+
+    public ScreenDiffer(TerminalEmulator emulator) {
+        mEmulator = emulator;
+    }
+
+    /** Make the next delta contain the whole screen, as when a client has lost its state. */
+    public void reset() {
+        mRows = null;
+    }
+
+    /**
+     * Write the changes since the previous delta, or the whole screen if this is the first delta since creation or
+     * {@link #reset()}. Nothing is written if nothing has changed.
+     *
+     * @return if a delta was written.
+     */
+    public boolean writeDelta(OutputStream out) throws IOException {
+        TerminalBuffer screen = mEmulator.getScreen();
+        int columns = mEmulator.mColumns;
+        int rows = mEmulator.mRows;
+        boolean full = mRows == null || mColumns != columns || mRows.length != rows;
+
+        TerminalRow[] currentRows = new TerminalRow[rows];
+        for (int row = 0; row < rows; row++)
+            currentRows[row] = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+
+        if (mSources.length < rows) mSources = new int[rows];
+        boolean changed = full;
+        if (!full) {
+            // Rows scrolled together have the same offset, so start looking where the row above was found.
+            int guess = 0;
+            for (int row = 0; row < rows; row++) {
+                int source = findUnchanged(currentRows[row], guess);
+                mSources[row] = source;
+                if (source != row) changed = true;
+                if (source != CHANGED) guess = source + 1;
+            }
+        }
+
+        int cursorRow = mEmulator.getCursorRow(), cursorCol = mEmulator.getCursorCol();
+        boolean cursorVisible = mEmulator.isShowingCursor();
+        boolean cursorChanged = full || cursorRow != mCursorRow || cursorCol != mCursorCol || cursorVisible != mCursorVisible;
+        String title = mEmulator.getTitle();
+        boolean titleChanged = full || (title == null ? mTitle != null : !title.equals(mTitle));
+        if (!changed && !cursorChanged && !titleChanged) return false;
+
+        if (full) {
+            out.write(OP_SIZE);
+            WireFormat.writeVarInt(out, columns);
+            WireFormat.writeVarInt(out, rows);
+        } else {
+            writeMoves(out, rows);
+        }
+        for (int row = 0; row < rows; row++) {
+            if (full || mSources[row] == CHANGED) {
+                out.write(OP_LINE);
+                WireFormat.writeVarInt(out, row);
+                ScreenSnapshot.writeLine(out, ScreenSnapshot.captureLine(currentRows[row], columns));
+            }
+        }
+        if (cursorChanged) {
+            out.write(OP_CURSOR);
+            WireFormat.writeVarInt(out, cursorRow);
+            WireFormat.writeVarInt(out, cursorCol);
+            out.write(cursorVisible ? 1 : 0);
+        }
+        if (titleChanged) {
+            out.write(OP_TITLE);
+            WireFormat.writeString(out, title);
+        }
+        out.write(OP_END);
+
+        if (mVersions == null || mVersions.length != rows) mVersions = new long[rows];
+        for (int row = 0; row < rows; row++)
+            mVersions[row] = currentRows[row].mVersion;
+        mRows = currentRows;
+        mColumns = columns;
+        mCursorRow = cursorRow;
+        mCursorCol = cursorCol;
+        mCursorVisible = cursorVisible;
+        mTitle = title;
+        return true;
+    }
+
+    /** Find the row of the previous frame holding the same unchanged row object, starting the search at a guess. */
+    private int findUnchanged(TerminalRow row, int guess) {
+        int rows = mRows.length;
+        for (int i = 0; i < rows; i++) {
+            int candidate = (guess + i) % rows;
+            if (mRows[candidate] == row) return (mVersions[candidate] == row.mVersion) ? candidate : CHANGED;
+        }
+        return CHANGED;
+    }
+
+    /** Write the unchanged rows at new positions as moves of consecutive rows. */
+    private void writeMoves(OutputStream out, int rows) throws IOException {
+        int row = 0;
+        while (row < rows) {
+            int source = mSources[row];
+            if (source == CHANGED || source == row) {
+                row++;
+                continue;
+            }
+            int count = 1;
+            while (row + count < rows && mSources[row + count] == source + count)
+                count++;
+            out.write(OP_MOVE);
+            WireFormat.writeVarInt(out, source);
+            WireFormat.writeVarInt(out, row);
+            WireFormat.writeVarInt(out, count);
+            row += count;
+        }
+    }
+
+    /**
+     * Apply a delta written by {@link #writeDelta(OutputStream)} to the screen it was produced against.
+     *
+     * @param previous the screen before the delta, or null if the delta is known to contain the whole screen.
+     */
+    public static ScreenSnapshot applyDelta(ScreenSnapshot previous, InputStream in) throws IOException {
+        int columns = 0, rows = 0, cursorRow = 0, cursorCol = 0;
+        boolean cursorVisible = false;
+        String title = null;
+        ScreenSnapshot.Line[] lines = null;
+        if (previous != null) {
+            columns = previous.columns;
+            rows = previous.rows;
+            cursorRow = previous.cursorRow;
+            cursorCol = previous.cursorCol;
+            cursorVisible = previous.cursorVisible;
+            title = previous.title;
+            lines = new ScreenSnapshot.Line[rows];
+            for (int row = 0; row < rows; row++)
+                lines[row] = previous.getLine(row);
+        }
+
+        while (true) {
+            int op = in.read();
+            switch (op) {
+                case OP_END:
+                    if (lines == null) throw new IOException("Delta without screen size");
+                    for (int row = 0; row < rows; row++)
+                        if (lines[row] == null) throw new IOException("Missing line after resize: " + row);
+                    return new ScreenSnapshot(columns, rows, cursorRow, cursorCol, cursorVisible, title, lines);
+                case OP_SIZE:
+                    columns = WireFormat.readInt(in);
+                    rows = WireFormat.readInt(in);
+                    ScreenSnapshot.checkSize(columns, rows);
+                    lines = new ScreenSnapshot.Line[rows];
+                    previous = null;
+                    break;
+                case OP_MOVE: {
+                    int source = WireFormat.readInt(in), destination = WireFormat.readInt(in), count = WireFormat.readInt(in);
+                    if (previous == null || (long) source + count > rows || (long) destination + count > rows)
+                        throw new IOException("Invalid move of " + count + " lines from " + source + " to " + destination);
+                    for (int i = 0; i < count; i++)
+                        lines[destination + i] = previous.getLine(source + i);
+                    break;
+                }
+                case OP_LINE: {
+                    int row = WireFormat.readInt(in);
+                    if (lines == null || row >= rows) throw new IOException("Invalid row: " + row);
+                    lines[row] = ScreenSnapshot.readLine(in);
+                    break;
+                }
+                case OP_CURSOR:
+                    cursorRow = WireFormat.readInt(in);
+                    cursorCol = WireFormat.readInt(in);
+                    int visible = in.read();
+                    if (visible == -1) throw new IOException("Truncated delta");
+                    cursorVisible = visible != 0;
+                    break;
+                case OP_TITLE:
+                    title = WireFormat.readString(in, TerminalEmulator.MAX_OSC_STRING_LENGTH * 4);
+                    if (title.isEmpty()) title = null;
+                    break;
+                case -1:
+                    throw new IOException("Truncated delta");
+                default:
+                    throw new IOException("Invalid delta operation: " + op);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable copy of the visible screen of a {@link TerminalEmulator}, for showing it in another process or on another
+ * thread than the one appending to the emulator.
+ * <p>
+ * Each line is stored as runs of text drawn with the same style. A snapshot is serialized with
+ * {@link #writeTo(OutputStream)} as a header of the columns, rows, cursor row and column, a flags byte
+ * ({@link #FLAG_CURSOR_VISIBLE}) and the title, followed by all lines. A line is a flags byte ({@link #FLAG_LINE_WRAP})
+ * and the number of runs, each run being its style as encoded by {@link TextStyle}, the number of columns it covers and
+ * its text. Numbers and strings are written with {@link WireFormat}. To keep a copy up to date as the screen changes,
+ * see {@link ScreenDiffer}.
+ */
+public final class ScreenSnapshot {
+
+    static final int FLAG_CURSOR_VISIBLE = 1;
+    static final int FLAG_LINE_WRAP = 1;
+
+    /**
+     * Bound on the screen size accepted when reading, to not allocate unreasonable amounts on invalid input. Also a sane
+     * bound on the size of screens which are to be sent.
+     */
+    public static final int MAX_CELLS = 1 << 20;
+
+    /** Text in a line covering a number of columns which all have the same style. */
+    public static final class Run {
+        public final long style;
+        public final int columns;
+        public final String text;
+
+        Run(long style, int columns, String text) {
+            this.style = style;
+            this.columns = columns;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Run)) return false;
+            Run other = (Run) o;
+            return style == other.style && columns == other.columns && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (int) (style ^ (style >>> 32)) + columns) + text.hashCode();
+        }
+    }
+
+    /** A line on the screen. */
+    public static final class Line {
+        private final Run[] mRuns;
+        public final boolean lineWrap;
+
+        Line(Run[] runs, boolean lineWrap) {
+            mRuns = runs;
+            this.lineWrap = lineWrap;
+        }
+
+        public int getRunCount() {
+            return mRuns.length;
+        }
+
+        public Run getRun(int index) {
+            return mRuns[index];
+        }
+
+        /** The text of the whole line, including trailing spaces. */
+        public String getText() {
+            StringBuilder builder = new StringBuilder();
+            for (Run run : mRuns)
+                builder.append(run.text);
+            return builder.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) return false;
+            Line other = (Line) o;
+            return lineWrap == other.lineWrap && Arrays.equals(mRuns, other.mRuns);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(mRuns) + (lineWrap ? 1 : 0);
+        }
+    }
+
+    public final int columns;
+    public final int rows;
+    public final int cursorRow;
+    public final int cursorCol;
+    public final boolean cursorVisible;
+    /** The terminal title, or null if none set. */
+    public final String title;
+    private final Line[] mLines;
+
+    ScreenSnapshot(int columns, int rows, int cursorRow, int cursorCol, boolean cursorVisible, String title, Line[] lines) {
+        this.columns = columns;
+        this.rows = rows;
+        this.cursorRow = cursorRow;
+        this.cursorCol = cursorCol;
+        this.cursorVisible = cursorVisible;
+        this.title = title;
+        mLines = lines;
+    }
+
+    /** Copy the current screen of the emulator. */
+    public static ScreenSnapshot capture(TerminalEmulator emulator) {
+        TerminalBuffer screen = emulator.getScreen();
+        Line[] lines = new Line[emulator.mRows];
+        for (int row = 0; row < lines.length; row++) {
+            TerminalRow line = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            lines[row] = captureLine(line, emulator.mColumns);
+        }
+        return new ScreenSnapshot(emulator.mColumns, emulator.mRows, emulator.getCursorRow(), emulator.getCursorCol(),
+            emulator.isShowingCursor(), emulator.getTitle(), lines);
+    }
+
+    static Line captureLine(TerminalRow row, int columns) {
+        List<Run> runs = new ArrayList<>();
+        char[] text = row.mText;
+        int spaceUsed = row.getSpaceUsed();
+        long runStyle = row.getStyle(0);
+        int runStartIndex = 0, runStartColumn = 0, column = 0, index = 0;
+        while (index < spaceUsed) {
+            char c = text[index];
+            boolean isSurrogatePair = Character.isHighSurrogate(c) && index + 1 < spaceUsed;
+            int codePoint = isSurrogatePair ? Character.toCodePoint(c, text[index + 1]) : c;
+            int width = WcWidth.width(codePoint);
+            if (width > 0) {
+                if (column >= columns) break;
+                long style = row.getStyle(column);
+                if (style != runStyle) {
+                    runs.add(new Run(runStyle, column - runStartColumn, new String(text, runStartIndex, index - runStartIndex)));
+                    runStyle = style;
+                    runStartIndex = index;
+                    runStartColumn = column;
+                }
+                column += width;
+            }
+            index += isSurrogatePair ? 2 : 1;
+        }
+        runs.add(new Run(runStyle, column - runStartColumn, new String(text, runStartIndex, index - runStartIndex)));
+        return new Line(runs.toArray(new Run[runs.size()]), row.mLineWrap);
+    }
+
+    /** The line at a row, from 0 to {@link #rows} - 1. */
+    public Line getLine(int row) {
+        return mLines[row];
+    }
+
+    /** Write the whole snapshot. */
+    public void writeTo(OutputStream out) throws IOException {
+        writeHeader(out);
+        for (Line line : mLines)
+            writeLine(out, line);
+    }
+
+    /** Read a snapshot written by {@link #writeTo(OutputStream)}. */
+    public static ScreenSnapshot readFrom(InputStream in) throws IOException {
+        ScreenSnapshot header = readHeader(in);
+        for (int row = 0; row < header.rows; row++)
+            header.mLines[row] = readLine(in);
+        return header;
+    }
+
+    private void writeHeader(OutputStream out) throws IOException {
+        WireFormat.writeVarInt(out, columns);
+        WireFormat.writeVarInt(out, rows);
+        WireFormat.writeVarInt(out, cursorRow);
+        WireFormat.writeVarInt(out, cursorCol);
+        out.write(cursorVisible ? FLAG_CURSOR_VISIBLE : 0);
+        WireFormat.writeString(out, title);
+    }
+
+    private static ScreenSnapshot readHeader(InputStream in) throws IOException {
+        int columns = WireFormat.readInt(in);
+        int rows = WireFormat.readInt(in);
+        checkSize(columns, rows);
+        int cursorRow = WireFormat.readInt(in);
+        int cursorCol = WireFormat.readInt(in);
+        int flags = in.read();
+        if (flags == -1) throw new IOException("Truncated snapshot");
+        String title = WireFormat.readString(in, TerminalEmulator.MAX_OSC_STRING_LENGTH * 4);
+        return new ScreenSnapshot(columns, rows, cursorRow, cursorCol, (flags & FLAG_CURSOR_VISIBLE) != 0,
+            title.isEmpty() ? null : title, new Line[rows]);
+    }
+
+    static void checkSize(int columns, int rows) throws IOException {
+        if (columns < 1 || rows < 1 || (long) columns * rows > MAX_CELLS)
+            throw new IOException("Invalid screen size: " + columns + "x" + rows);
+    }
+
+    static void writeLine(OutputStream out, Line line) throws IOException {
+        out.write(line.lineWrap ? FLAG_LINE_WRAP : 0);
+        WireFormat.writeVarInt(out, line.mRuns.length);
+        for (Run run : line.mRuns) {
+            WireFormat.writeVarInt(out, run.style);
+            WireFormat.writeVarInt(out, run.columns);
+            WireFormat.writeString(out, run.text);
+        }
+    }
+
+    static Line readLine(InputStream in) throws IOException {
+        int flags = in.read();
+        if (flags == -1) throw new IOException("Truncated snapshot");
+        int runCount = WireFormat.readInt(in);
+        if (runCount > MAX_CELLS) throw new IOException("Too many runs: " + runCount);
+        Run[] runs = new Run[runCount];
+        for (int i = 0; i < runCount; i++) {
+            long style = WireFormat.readVarInt(in);
+            int columns = WireFormat.readInt(in);
+            String text = WireFormat.readString(in, MAX_CELLS);
+            runs[i] = new Run(style, columns, text);
+        }
+        return new Line(runs, (flags & FLAG_LINE_WRAP) != 0);
+    }
+
+}
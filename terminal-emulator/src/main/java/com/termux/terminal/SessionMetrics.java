@@ -0,0 +1,164 @@
+package com.termux.terminal;
+
+import java.util.Locale;
+
+/**
+ * Counters of the I/O and processing of a {@link TerminalSession}, collected while enabled with
+ * {@link TerminalSession#setMetricsEnabled(boolean)}. When disabled there is no metrics object, so the only cost is a
+ * null check at each counting point.
+ * <p>
+ * Counters are updated on the main thread and should only be read there, except for the queue stalls which are counted
+ * by the {@link ByteQueue} itself.
+ */
+public final class SessionMetrics {
+
+    /** C0 control characters outside of escape sequences other than ESC, such as line feeds and carriage returns. */
+    public static final int SEQUENCE_CONTROL = 0;
+    /** Escape sequences which are not of any of the other types, such as ESC 7 to save the cursor. */
+    public static final int SEQUENCE_ESC = 1;
+    /** Control Sequence Introducer sequences, ESC [. */
+    public static final int SEQUENCE_CSI = 2;
+    /** Operating System Command sequences, ESC ]. */
+    public static final int SEQUENCE_OSC = 3;
+    /** Device Control String sequences, ESC P. */
+    public static final int SEQUENCE_DCS = 4;
+    private static final int SEQUENCE_TYPES = 5;
+
+    private final ByteQueue mInputQueue;
+
+    long mBytesIn;
+    long mBytesOut;
+    long mMessages;
+    long mBatches;
+    long mParseNanos;
+    long mMaxParseNanos;
+    final long[] mSequences = new long[SEQUENCE_TYPES];
+    long mScrolls;
+    private long mFrames;
+    private long mRenderNanos;
+    private long mMaxRenderNanos;
+    /** The stalls of {@link #mInputQueue} when created or last reset. */
+    private int mQueueStallsAtReset;
+
+    SessionMetrics(ByteQueue inputQueue) {
+        mInputQueue = inputQueue;
+        mQueueStallsAtReset = inputQueue.getWriteStalls();
+    }
+
+    /** Count the start of an escape sequence, from the character following ESC. */
+    void countEscapeSequence(int introducer) {
+        switch (introducer) {
+            case '[':
+                mSequences[SEQUENCE_CSI]++;
+                break;
+            case ']':
+                mSequences[SEQUENCE_OSC]++;
+                break;
+            case 'P':
+                mSequences[SEQUENCE_DCS]++;
+                break;
+            default:
+                mSequences[SEQUENCE_ESC]++;
+                break;
+        }
+    }
+
+    /** Count a batch of input appended to the emulator, and the time it took to parse. */
+    void countBatch(int bytes, long nanos) {
+        mBytesIn += bytes;
+        mBatches++;
+        mParseNanos += nanos;
+        if (nanos > mMaxParseNanos) mMaxParseNanos = nanos;
+    }
+
+    /** Record the time a view took to draw a frame of the session. */
+    public void recordFrame(long nanos) {
+        mFrames++;
+        mRenderNanos += nanos;
+        if (nanos > mMaxRenderNanos) mMaxRenderNanos = nanos;
+    }
+
+    /** Start counting from zero again. */
+    public void reset() {
+        mBytesIn = mBytesOut = mMessages = mBatches = mParseNanos = mMaxParseNanos = mScrolls = 0;
+        mFrames = mRenderNanos = mMaxRenderNanos = 0;
+        for (int i = 0; i < SEQUENCE_TYPES; i++)
+            mSequences[i] = 0;
+        mQueueStallsAtReset = mInputQueue.getWriteStalls();
+    }
+
+    /** Bytes of output from the process appended to the emulator. */
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    /** Bytes written to the process, such as typed keys and pastes. */
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    /** Messages handled on the main thread for new input. */
+    public long getMessages() {
+        return mMessages;
+    }
+
+    /** Batches of input appended to the emulator, each taking one parse. */
+    public long getBatches() {
+        return mBatches;
+    }
+
+    public long getParseNanos() {
+        return mParseNanos;
+    }
+
+    public long getMaxParseNanos() {
+        return mMaxParseNanos;
+    }
+
+    /** @param type one of the SEQUENCE_* constants. */
+    public long getSequences(int type) {
+        return mSequences[type];
+    }
+
+    /** Lines scrolled, including lines skipped by fast forward, see {@link TerminalEmulator#setFastForward(boolean)}. */
+    public long getScrolls() {
+        return mScrolls;
+    }
+
+    /** Frames drawn by a view, as recorded with {@link #recordFrame(long)}. */
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    public long getMaxRenderNanos() {
+        return mMaxRenderNanos;
+    }
+
+    /** Times reading output from the process was held back since its queue was full. */
+    public int getQueueStalls() {
+        return mInputQueue.getWriteStalls() - mQueueStallsAtReset;
+    }
+
+    /** A few lines summarizing the counters, for showing in a debug overlay. */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "in %d B, out %d B, %d msgs, %d stalls\n"
+                + "parse %d batches, avg %.2f ms, max %.2f ms\n"
+                + "ctrl %d, esc %d, csi %d, osc %d, dcs %d, scroll %d\n"
+                + "render %d frames, avg %.2f ms, max %.2f ms",
+            mBytesIn, mBytesOut, mMessages, getQueueStalls(),
+            mBatches, averageMillis(mParseNanos, mBatches), mMaxParseNanos / 1e6,
+            mSequences[SEQUENCE_CONTROL], mSequences[SEQUENCE_ESC], mSequences[SEQUENCE_CSI], mSequences[SEQUENCE_OSC],
+            mSequences[SEQUENCE_DCS], mScrolls,
+            mFrames, averageMillis(mRenderNanos, mFrames), mMaxRenderNanos / 1e6);
+    }
+
+    private static double averageMillis(long nanos, long count) {
+        return (count == 0) ? 0 : nanos / 1e6 / count;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.termux.terminal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the output of a terminal session as received by the emulator, together with resizes, for later replay by
+ * {@link SessionReplayer}.
+ * <p>
+ * The format is a header of the magic bytes {@link #MAGIC}, a version byte and the initial columns and rows, followed by
+ * events. Each event is a type byte, the number of milliseconds since the previous event (or the start of recording) and
+ * then either the length and bytes of the received input ({@link #EVENT_INPUT}), or the new columns and rows
+ * ({@link #EVENT_RESIZE}). All numbers are written as unsigned LEB128 variable length integers.
+ */
+public final class SessionRecorder implements Closeable {
+
+    static final byte[] MAGIC = {'T', 'R', 'E', 'C'};
+    static final int VERSION = 1;
+
+    static final int EVENT_INPUT = 1;
+    static final int EVENT_RESIZE = 2;
+
+    private final OutputStream mOut;
+    private long mLastEventNanos;
+
+    /** Start a recording of a session with the specified size, which is written to a buffered version of the stream. */
+    public SessionRecorder(OutputStream out, int columns, int rows) throws IOException {
+        mOut = new BufferedOutputStream(out, 8192);
+        mOut.write(MAGIC);
+        mOut.write(VERSION);
+        writeVarInt(columns);
+        writeVarInt(rows);
+        mLastEventNanos = System.nanoTime();
+    }
+
+    /** Record input received by the emulator. */
+    public void recordInput(byte[] data, int offset, int length) throws IOException {
+        writeEventHeader(EVENT_INPUT);
+        writeVarInt(length);
+        mOut.write(data, offset, length);
+    }
+
+    /** Record a resize of the emulator. */
+    public void recordResize(int columns, int rows) throws IOException {
+        writeEventHeader(EVENT_RESIZE);
+        writeVarInt(columns);
+        writeVarInt(rows);
+    }
+
+    private void writeEventHeader(int type) throws IOException {
+        long now = System.nanoTime();
+        long elapsedMillis = (now - mLastEventNanos) / 1_000_000;
+        // Only move the time forward with whole milliseconds so that short intervals are not lost to rounding.
+        mLastEventNanos += elapsedMillis * 1_000_000;
+        mOut.write(type);
+        writeVarInt(elapsedMillis);
+    }
+
+    private void writeVarInt(long value) throws IOException {
+        WireFormat.writeVarInt(mOut, value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOut.close();
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.termux.terminal;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays a recording made by {@link SessionRecorder} into a new {@link TerminalEmulator}, either as fast as possible or
+ * with the recorded timing. Does not depend on any Android classes, so that recordings can be used as reproducible
+ * workloads on a desktop JVM.
+ */
+public final class SessionReplayer {
+
+    /** The outcome of a replay. */
+    public static final class Result {
+        public final TerminalEmulator emulator;
+        /** The number of input bytes fed to the emulator. */
+        public final long bytes;
+        /** The time spent replaying, excluding waiting in real time replays. */
+        public final long elapsedNanos;
+
+        Result(TerminalEmulator emulator, long bytes, long elapsedNanos) {
+            this.emulator = emulator;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double bytesPerSecond() {
+            return (elapsedNanos == 0) ? 0 : bytes * 1e9 / elapsedNanos;
+        }
+    }
+
+    /** Discards everything the emulator writes back, since there is no process to receive it. */
+    private static final class DiscardingOutput extends TerminalOutput {
+        @Override
+        public void write(byte[] data, int offset, int count) {
+        }
+
+        @Override
+        public void titleChanged(String oldTitle, String newTitle) {
+        }
+
+        @Override
+        public void clipboardText(String text) {
+        }
+
+        @Override
+        public void onBell() {
+        }
+
+        @Override
+        public void onColorsChanged() {
+        }
+    }
+
+    private SessionReplayer() {
+    }
+
+    /**
+     * Replay a recording.
+     *
+     * @param in       the recording, which is read until its end but not closed.
+     * @param realTime if the recorded delays between events should be kept, instead of replaying as fast as possible.
+     */
+    public static Result replay(InputStream in, boolean realTime) throws IOException, InterruptedException {
+        in = new BufferedInputStream(in, 8192);
+        byte[] magic = new byte[SessionRecorder.MAGIC.length];
+        WireFormat.readFully(in, magic, magic.length);
+        if (!Arrays.equals(magic, SessionRecorder.MAGIC)) throw new IOException("Not a session recording");
+        int version = in.read();
+        if (version != SessionRecorder.VERSION) throw new IOException("Unsupported recording version: " + version);
+
+        int initialColumns = WireFormat.readInt(in), initialRows = WireFormat.readInt(in);
+        TerminalEmulator emulator = new TerminalEmulator(new DiscardingOutput(), initialColumns, initialRows, /* transcript= */2000);
+        byte[] buffer = new byte[4096];
+        long bytes = 0;
+        long elapsedNanos = 0;
+        int type;
+        while ((type = in.read()) != -1) {
+            long delayMillis = WireFormat.readVarInt(in);
+            if (realTime && delayMillis > 0) Thread.sleep(delayMillis);
+            switch (type) {
+                case SessionRecorder.EVENT_INPUT:
+                    int length = WireFormat.readInt(in);
+                    if (length > buffer.length) buffer = new byte[length];
+                    WireFormat.readFully(in, buffer, length);
+                    long start = System.nanoTime();
+                    emulator.append(buffer, length);
+                    elapsedNanos += System.nanoTime() - start;
+                    bytes += length;
+                    break;
+                case SessionRecorder.EVENT_RESIZE:
+                    int columns = WireFormat.readInt(in), rows = WireFormat.readInt(in);
+                    start = System.nanoTime();
+                    emulator.resize(columns, rows);
+                    elapsedNanos += System.nanoTime() - start;
+                    break;
+                default:
+                    throw new IOException("Invalid event type: " + type);
+            }
+        }
+        return new Result(emulator, bytes, elapsedNanos);
+    }
+
+    /**
+     * A hash of the screen contents including the transcript, styles and cursor position, for checking that a change to
+     * the emulator does not change the outcome of a replay.
+     */
+    public static long screenHash(TerminalEmulator emulator) {
+        // 64-bit FNV-1a.
+        long hash = 0xcbf29ce484222325L;
+        TerminalBuffer screen = emulator.getScreen();
+        hash = fnv(hash, emulator.getCursorRow());
+        hash = fnv(hash, emulator.getCursorCol());
+        for (int row = -screen.getActiveTranscriptRows(); row < emulator.mRows; row++) {
+            TerminalRow line = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            for (int i = 0; i < line.getSpaceUsed(); i++)
+                hash = fnv(hash, line.mText[i]);
+            for (int column = 0; column < emulator.mColumns; column++)
+                hash = fnv(hash, line.getStyle(column));
+            hash = fnv(hash, line.mLineWrap ? 1 : 0);
+        }
+        return hash;
+    }
+
+    private static long fnv(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Replay a recording file: "SessionReplayer [--realtime] FILE". */
+    public static void main(String[] args) throws Exception {
+        boolean realTime = args.length == 2 && args[0].equals("--realtime");
+        if (args.length != (realTime ? 2 : 1)) {
+            System.err.println("usage: SessionReplayer [--realtime] FILE");
+            System.exit(1);
+        }
+        try (InputStream in = new FileInputStream(args[args.length - 1])) {
+            Result result = replay(in, realTime);
+            System.out.println(String.format(Locale.US, "%d bytes in %.1f ms, %.2f MB/s, screen hash %016x", result.bytes,
+                result.elapsedNanos / 1e6, result.bytesPerSecond() / 1e6, screenHash(result.emulator)));
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.util.Arrays;
+
 /**
  * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
  * history.
@@ -8,8 +10,13 @@ package com.termux.terminal;
  */
 public final class TerminalBuffer {
 
+    /**
+     * The rows of the circular buffer. Until the history has filled it this may be shorter than {@link #mTotalRows},
+     * and is grown by {@link #ensureLines(int)} as the screen moves down, so that a short lived session does not pay
+     * for the whole history.
+     */
     TerminalRow[] mLines;
-    /** The length of {@link #mLines}. */
+    /** The number of rows in the circular buffer, which {@link #mLines} is grown to before the rows wrap around. */
     int mTotalRows;
     /** The number of rows and columns visible on the screen. */
     int mScreenRows, mColumns;
@@ -30,9 +37,18 @@ public final class TerminalBuffer {
         mColumns = columns;
         mTotalRows = totalRows;
         mScreenRows = screenRows;
-        mLines = new TerminalRow[totalRows];
+        mLines = new TerminalRow[Math.min(totalRows, screenRows * 2)];
+        for (int i = 0; i < Math.min(screenRows, mLines.length); i++)
+            mLines[i] = TerminalRowPool.obtainRow(columns, TextStyle.NORMAL);
+    }
 
-        blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
+    /**
+     * Make room in {@link #mLines} for internal rows up to, but not including, the specified one. The rows do not wrap
+     * around the end of the buffer until it is {@link #mTotalRows} long, so they keep their indices when it grows.
+     */
+    private void ensureLines(int rows) {
+        if (rows <= mLines.length || mLines.length >= mTotalRows) return;
+        mLines = Arrays.copyOf(mLines, Math.min(mTotalRows, Math.max(rows, mLines.length * 2)));
     }
 
     public String getTranscriptText() {
@@ -119,7 +135,9 @@ public final class TerminalBuffer {
     }
 
     public void setLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = true;
+        TerminalRow line = mLines[externalToInternalRow(row)];
+        line.mLineWrap = true;
+        line.mVersion++;
     }
 
     public boolean getLineWrap(int row) {
@@ -127,7 +145,9 @@ public final class TerminalBuffer {
     }
 
     public void clearLineWrap(int row) {
-        mLines[externalToInternalRow(row)].mLineWrap = false;
+        TerminalRow line = mLines[externalToInternalRow(row)];
+        line.mLineWrap = false;
+        line.mVersion++;
     }
 
     /**
@@ -155,6 +175,7 @@ public final class TerminalBuffer {
             } else if (shiftDownOfTopRow < 0) {
                 // Negative shift down = expanding. Only move screen up if there is transcript to show:
                 int actualShift = Math.max(shiftDownOfTopRow, -mActiveTranscriptRows);
+                ensureLines(mScreenFirstRow + actualShift + newRows);
                 if (shiftDownOfTopRow != actualShift) {
                     // The new lines revealed by the resizing are not all from the transcript. Blank the below ones.
                     for (int i = 0; i < actualShift - shiftDownOfTopRow; i++)
@@ -171,9 +192,10 @@ public final class TerminalBuffer {
         } else {
             // Copy away old state and update new:
             TerminalRow[] oldLines = mLines;
-            mLines = new TerminalRow[newTotalRows];
-            for (int i = 0; i < newTotalRows; i++)
-                mLines[i] = new TerminalRow(newColumns, currentStyle);
+            mLines = new TerminalRow[Math.min(newTotalRows, newRows * 2)];
+            // Only the screen rows, with history rows allocated as lines scroll into it:
+            for (int i = 0; i < Math.min(newRows, mLines.length); i++)
+                mLines[i] = TerminalRowPool.obtainRow(newColumns, currentStyle);
 
             final int oldActiveTranscriptRows = mActiveTranscriptRows;
             final int oldScreenFirstRow = mScreenFirstRow;
@@ -285,12 +307,41 @@ public final class TerminalBuffer {
 
             cursor[0] = newCursorColumn;
             cursor[1] = newCursorRow;
+
+            for (TerminalRow oldLine : oldLines)
+                if (oldLine != null) TerminalRowPool.recycleRow(oldLine);
         }
 
         // Handle cursor scrolling off screen:
         if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
     }
 
+    /**
+     * Blank the screen with the specified style and drop any history, as when switching to the alternate screen buffer.
+     * Each row is cleared with a fill instead of setting every cell, and a change of size does not reflow the contents
+     * since they are cleared anyway, so this is much cheaper than {@link #resize(int, int, int, int[], long, boolean)}
+     * followed by {@link #blockSet(int, int, int, int, int, long)}.
+     */
+    public void clearAll(int columns, int screenRows, int totalRows, long style) {
+        if (columns != mColumns || totalRows != mTotalRows) {
+            for (TerminalRow line : mLines)
+                if (line != null) TerminalRowPool.recycleRow(line);
+            mLines = new TerminalRow[Math.min(totalRows, screenRows * 2)];
+            mColumns = columns;
+            mTotalRows = totalRows;
+        }
+        mScreenRows = screenRows;
+        mScreenFirstRow = mActiveTranscriptRows = 0;
+        ensureLines(screenRows);
+        for (int i = 0; i < Math.min(screenRows, mLines.length); i++) {
+            if (mLines[i] == null) {
+                mLines[i] = TerminalRowPool.obtainRow(columns, style);
+            } else {
+                mLines[i].clear(style);
+            }
+        }
+    }
+
     /**
      * Block copy lines and associated metadata from one location to another in the circular buffer, taking wraparound
      * into account.
@@ -323,6 +374,7 @@ public final class TerminalBuffer {
         if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
             throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
 
+        ensureLines(mScreenFirstRow + mScreenRows + 1);
         // Copy the fixed topMargin lines one line down so that they remain on screen in same position:
         blockCopyLinesDown(mScreenFirstRow, topMargin);
         // Copy the fixed mScreenRows-bottomMargin lines one line down so that they remain on screen in same
@@ -337,7 +389,7 @@ public final class TerminalBuffer {
         // Blank the newly revealed line above the bottom margin:
         int blankRow = externalToInternalRow(bottomMargin - 1);
         if (mLines[blankRow] == null) {
-            mLines[blankRow] = new TerminalRow(mColumns, style);
+            mLines[blankRow] = TerminalRowPool.obtainRow(mColumns, style);
         } else {
             mLines[blankRow].clear(style);
         }
@@ -378,12 +430,51 @@ public final class TerminalBuffer {
                 "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
         }
         for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++)
-                setChar(sx + x, sy + y, val, style);
+            allocateFullLineIfNecessary(externalToInternalRow(sy + y)).fill(sx, sx + w, val, style);
+    }
+
+    /** The approximate memory used by the rows in the history, in bytes. */
+    public long getTranscriptBytes() {
+        long bytes = 0;
+        for (int row = -mActiveTranscriptRows; row < 0; row++) {
+            TerminalRow line = mLines[externalToInternalRow(row)];
+            if (line != null) bytes += line.getMemoryBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Free memory by dropping the oldest lines of history until the rest fits in the specified number of bytes, as well
+     * as any rows left outside of the history and screen by an earlier resize.
+     *
+     * @return the approximate number of bytes freed.
+     */
+    public long trimTranscript(long maxBytes) {
+        int keptRows = 0;
+        long keptBytes = 0;
+        while (keptRows < mActiveTranscriptRows) {
+            TerminalRow line = mLines[externalToInternalRow(-keptRows - 1)];
+            long lineBytes = (line == null) ? 0 : line.getMemoryBytes();
+            if (keptBytes + lineBytes > maxBytes) break;
+            keptBytes += lineBytes;
+            keptRows++;
+        }
+        mActiveTranscriptRows = keptRows;
+
+        // Every row of the circular buffer from below the screen around to above the kept history:
+        long freedBytes = 0;
+        for (int i = mScreenRows; i < mTotalRows - keptRows; i++) {
+            int row = (mScreenFirstRow + i) % mTotalRows;
+            if (row < mLines.length && mLines[row] != null) {
+                freedBytes += mLines[row].getMemoryBytes();
+                mLines[row] = null;
+            }
+        }
+        return freedBytes;
     }
 
     public TerminalRow allocateFullLineIfNecessary(int row) {
-        return (mLines[row] == null) ? (mLines[row] = new TerminalRow(mColumns, 0)) : mLines[row];
+        return (mLines[row] == null) ? (mLines[row] = TerminalRowPool.obtainRow(mColumns, 0)) : mLines[row];
     }
 
     public void setChar(int column, int row, int codePoint, long style) {
@@ -419,6 +510,7 @@ public final class TerminalBuffer {
                 }
                 line.mStyle[x] = TextStyle.encode(foreColor, backColor, effect);
             }
+            line.mVersion++;
         }
     }
 
@@ -1,9 +1,5 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-import android.util.Log;
-
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Objects;
@@ -85,11 +81,96 @@ public final class TerminalEmulator {
     /** Escape processing: CSI ! */
     private static final int ESC_CSI_EXCLAMATION = 19;
 
+    /** The number of escape processing states, used to size {@link #PARSER_ACTIONS}. */
+    private static final int NUM_ESCAPE_STATES = 20;
+
+    /** Character class: C0 control which is executed in any state, see {@link #executeControl(int)}. */
+    private static final int CLASS_C0_EXECUTE = 0;
+    /** Character class: C0 control without an action of its own. */
+    private static final int CLASS_C0_OTHER = 1;
+    /** Character class: '0' to '9'. */
+    private static final int CLASS_DIGIT = 2;
+    /** Character class: ';', the parameter separator. */
+    private static final int CLASS_SEMICOLON = 3;
+    /** Character class: A backslash, the final character of the ESC \ string terminator. */
+    private static final int CLASS_BACKSLASH = 4;
+    /** Character class: Any other 7-bit character, including intermediate and final bytes. */
+    private static final int CLASS_OTHER = 5;
+    /** Character class: A code point outside of 7-bit ASCII. */
+    private static final int CLASS_NON_ASCII = 6;
+    private static final int NUM_CHARACTER_CLASSES = 7;
+
+    /** Parser action: Drop the character. */
+    private static final byte ACTION_IGNORE = 0;
+    /** Parser action: Execute a C0 control, see {@link #executeControl(int)}. */
+    private static final byte ACTION_EXECUTE = 1;
+    /** Parser action: Output the character to the screen. */
+    private static final byte ACTION_PRINT = 2;
+    /** Parser action: Collect a parameter digit or separator, see {@link #parseArg(int)}. */
+    private static final byte ACTION_PARAM = 3;
+    /** Parser action: Collect an OSC string character, see {@link #collectOSCArgs(int)}. */
+    private static final byte ACTION_OSC_PUT = 4;
+    /** Parser action: Collect a device control string character, see {@link #collectDeviceControlArgs(int)}. */
+    private static final byte ACTION_DCS_PUT = 5;
+    /** Parser action: Let the handler of the current escape state decide, see {@link #doEscapeState(int)}. */
+    private static final byte ACTION_DISPATCH = 6;
+
+    /** The character class of each 7-bit code point. */
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+
+    /**
+     * The action to take for a character of a given class in a given escape state, indexed as
+     * [{@link #mEscapeState}][character class]. Modeled on the VT500 parser state diagram at
+     * http://vt100.net/emu/dec_ansi_parser, where C0 controls are executed from anywhere and the common ground, parameter
+     * and string states are handled without going through the per-state handlers.
+     */
+    private static final byte[][] PARSER_ACTIONS = new byte[NUM_ESCAPE_STATES][NUM_CHARACTER_CLASSES];
+
+    static {
+        for (int c = 0; c < 32; c++)
+            CHARACTER_CLASSES[c] = CLASS_C0_OTHER;
+        for (int c : new int[]{0, 7, 8, 9, 10, 11, 12, 13, 14, 15, 24, 26, 27})
+            CHARACTER_CLASSES[c] = CLASS_C0_EXECUTE;
+        for (int c = 32; c < 128; c++)
+            CHARACTER_CLASSES[c] = CLASS_OTHER;
+        for (int c = '0'; c <= '9'; c++)
+            CHARACTER_CLASSES[c] = CLASS_DIGIT;
+        CHARACTER_CLASSES[';'] = CLASS_SEMICOLON;
+        CHARACTER_CLASSES['\\'] = CLASS_BACKSLASH;
+
+        for (byte[] actions : PARSER_ACTIONS) {
+            Arrays.fill(actions, ACTION_DISPATCH);
+            actions[CLASS_C0_EXECUTE] = ACTION_EXECUTE;
+        }
+
+        byte[] ground = PARSER_ACTIONS[ESC_NONE];
+        Arrays.fill(ground, ACTION_PRINT);
+        ground[CLASS_C0_EXECUTE] = ACTION_EXECUTE;
+        ground[CLASS_C0_OTHER] = ACTION_IGNORE;
+
+        for (int state : new int[]{ESC_CSI, ESC_CSI_QUESTIONMARK, ESC_CSI_BIGGERTHAN}) {
+            PARSER_ACTIONS[state][CLASS_DIGIT] = ACTION_PARAM;
+            PARSER_ACTIONS[state][CLASS_SEMICOLON] = ACTION_PARAM;
+        }
+
+        byte[] osc = PARSER_ACTIONS[ESC_OSC];
+        Arrays.fill(osc, ACTION_OSC_PUT);
+        osc[CLASS_C0_EXECUTE] = ACTION_EXECUTE;
+
+        byte[] deviceControl = PARSER_ACTIONS[ESC_P];
+        Arrays.fill(deviceControl, ACTION_DCS_PUT);
+        deviceControl[CLASS_C0_EXECUTE] = ACTION_EXECUTE;
+        deviceControl[CLASS_BACKSLASH] = ACTION_DISPATCH;
+    }
+
     /** The number of parameter arguments. This name comes from the ANSI standard for terminal escape codes. */
     private static final int MAX_ESCAPE_PARAMETERS = 16;
 
-    /** Needs to be large enough to contain reasonable OSC 52 pastes. */
-    private static final int MAX_OSC_STRING_LENGTH = 8192;
+    /** The maximum length of OSC and DCS strings. OSC 52 pastes are decoded as they arrive and do not count. */
+    static final int MAX_OSC_STRING_LENGTH = 8192;
+
+    /** The default value of {@link #setMaxClipboardBytes(int)}. */
+    public static final int DEFAULT_MAX_CLIPBOARD_BYTES = 256 * 1024;
 
     /** DECSET 1 - application cursor keys. */
     private static final int DECSET_BIT_APPLICATION_CURSOR_KEYS = 1;
@@ -144,9 +225,11 @@ public final class TerminalEmulator {
      * The alternate screen buffer, exactly as large as the display and contains no additional saved lines (so that when
      * the alternate screen buffer is active, you cannot scroll back to view saved lines).
      * <p>
+     * Null until first switched to, since most sessions never use it.
+     * <p>
      * See http://www.xfree86.org/current/ctlseqs.html#The%20Alternate%20Screen%20Buffer
      */
-    final TerminalBuffer mAltBuffer;
+    TerminalBuffer mAltBuffer;
     /** The current screen buffer, pointing at either {@link #mMainBuffer} or {@link #mAltBuffer}. */
     private TerminalBuffer mScreen;
 
@@ -158,8 +241,15 @@ public final class TerminalEmulator {
     /** Holds the arguments of the current escape sequence. */
     private final int[] mArgs = new int[MAX_ESCAPE_PARAMETERS];
 
-    /** Holds OSC and device control arguments, which can be strings. */
-    private final StringBuilder mOSCOrDeviceControlArgs = new StringBuilder();
+    /** Holds OSC and device control arguments, which can be strings. Room is left for a trailing surrogate pair. */
+    private final char[] mOSCOrDeviceControlArgs = new char[MAX_OSC_STRING_LENGTH + 2];
+    /** The number of chars used in {@link #mOSCOrDeviceControlArgs}. */
+    private int mOSCOrDeviceControlArgsLength;
+
+    /** If the data of an OSC 52 sequence is being fed to {@link #mClipboardDecoder} instead of collected as text. */
+    private boolean mDecodingClipboard;
+    private final Base64Decoder mClipboardDecoder = new Base64Decoder();
+    private int mMaxClipboardBytes = DEFAULT_MAX_CLIPBOARD_BYTES;
 
     /**
      * True if the current escape sequence should continue, false if the current escape sequence should be terminated.
@@ -215,12 +305,24 @@ public final class TerminalEmulator {
     /** Current {@link TextStyle} effect. */
     private int mEffect;
 
+    /**
+     * The current colors and effect encoded with {@link TextStyle#encode(int, int, int)}, so that writing cells does
+     * not need to encode them. Must be kept up to date with {@link #updateStyle()} when any of them change.
+     */
+    private long mStyle;
+
     /**
      * The number of scrolled lines since last calling {@link #clearScrollCounter()}. Used for moving selection up along
      * with the scrolling text.
      */
     private int mScrollCounter = 0;
 
+    /** If plain text scrolled out of the transcript before being shown may be skipped, see {@link #setFastForward(boolean)}. */
+    private boolean mFastForward;
+
+    /** The metrics to count escape sequences and scrolls in, or null if not collecting metrics. */
+    private SessionMetrics mMetrics;
+
     private byte mUtf8ToFollow, mUtf8Index;
     private final byte[] mUtf8InputBuffer = new byte[4];
     private int mLastEmittedCodePoint = -1;
@@ -282,7 +384,6 @@ public final class TerminalEmulator {
     public TerminalEmulator(TerminalOutput session, int columns, int rows, int transcriptRows) {
         mSession = session;
         mScreen = mMainBuffer = new TerminalBuffer(columns, transcriptRows, rows);
-        mAltBuffer = new TerminalBuffer(columns, rows, rows);
         mRows = rows;
         mColumns = columns;
         mTabStop = new boolean[mColumns];
@@ -397,10 +498,120 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
+        append(buffer, 0, length);
+    }
+
+    /** Accept bytes from the specified portion of the buffer, such as straight from the queue of process output. */
+    public void append(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        int start = mFastForward ? fastForward(buffer, offset, end) : offset;
+        for (int i = start; i < end; i++)
             processByte(buffer[i]);
     }
 
+    /**
+     * Set if {@link #append(byte[], int, int)} may skip laying out plain text which would be scrolled out of the transcript
+     * by later input of the same call anyway, as when a program floods the terminal with output. The resulting state is
+     * the same as without skipping, except that there are fewer changes to observe on the way. Disabled by default.
+     */
+    public void setFastForward(boolean fastForward) {
+        mFastForward = fastForward;
+    }
+
+    /** Set the metrics to count escape sequences and scrolls in, or null to stop counting. */
+    void setMetrics(SessionMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Skip the start of the input if it is plain text of which nothing would remain in the buffer after processing the
+     * rest of it.
+     * <p>
+     * Plain text, printable ASCII with carriage returns and line feeds, only moves the cursor and writes characters with
+     * the current style. With the default margins every scroll clears the oldest row of the ring buffer to make it the new
+     * bottom row, so once there have been as many scrolls as the buffer has rows, nothing written before them remains.
+     * The input up to there can be skipped by only updating the cursor, which is simulated without touching the rows.
+     *
+     * @return the index of the first byte in [start, end) which must be processed.
+     */
+    private int fastForward(byte[] buffer, int start, int end) {
+        if (mEscapeState != ESC_NONE || mUtf8ToFollow != 0 || mInsertMode || !isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP)
+            || (mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1) || mTopMargin != 0
+            || mBottomMargin != mRows || mLeftMargin != 0 || mRightMargin != mColumns) return start;
+
+        // Count the scrolls caused by the plain text at the start, which the last mTotalRows of must be processed:
+        int scrolls = 0;
+        int row = mCursorRow, col = mCursorCol;
+        boolean aboutToAutoWrap = mAboutToAutoWrap;
+        for (int plainEnd = start; plainEnd < end; plainEnd++) {
+            byte b = buffer[plainEnd];
+            if (b == '\n') {
+                if (row == mRows - 1) scrolls++;
+                else row++;
+                aboutToAutoWrap = false;
+            } else if (b == '\r') {
+                col = 0;
+                aboutToAutoWrap = false;
+            } else if (b >= ' ' && b < 127) {
+                if (aboutToAutoWrap && col == mColumns - 1) {
+                    col = 0;
+                    if (row == mRows - 1) scrolls++;
+                    else row++;
+                }
+                aboutToAutoWrap = col == mColumns - 1;
+                col = Math.min(col + 1, mColumns - 1);
+            } else {
+                break;
+            }
+        }
+        int scrollsToSkip = scrolls - mScreen.mTotalRows;
+        if (scrollsToSkip <= 0) return start;
+
+        // Simulate again up to the byte causing the first scroll which must be processed:
+        row = mCursorRow;
+        col = mCursorCol;
+        aboutToAutoWrap = mAboutToAutoWrap;
+        int lastPrintable = -1;
+        scrolls = 0;
+        int index = start;
+        for (; ; index++) {
+            byte b = buffer[index];
+            if (b == '\n') {
+                if (row == mRows - 1) {
+                    if (scrolls == scrollsToSkip) break;
+                    scrolls++;
+                } else {
+                    row++;
+                }
+                aboutToAutoWrap = false;
+            } else if (b == '\r') {
+                col = 0;
+                aboutToAutoWrap = false;
+            } else {
+                if (aboutToAutoWrap && col == mColumns - 1) {
+                    if (row == mRows - 1) {
+                        if (scrolls == scrollsToSkip) break;
+                        scrolls++;
+                    } else {
+                        row++;
+                    }
+                    col = 0;
+                }
+                aboutToAutoWrap = col == mColumns - 1;
+                col = Math.min(col + 1, mColumns - 1);
+                lastPrintable = b;
+            }
+        }
+
+        mCursorRow = row;
+        mCursorCol = col;
+        mAboutToAutoWrap = aboutToAutoWrap;
+        if (lastPrintable != -1) mLastEmittedCodePoint = lastPrintable;
+        mScrollCounter += scrollsToSkip;
+        if (mMetrics != null) mMetrics.mScrolls += scrollsToSkip;
+        return index;
+    }
+
     private void processByte(byte byteToProcess) {
         if (mUtf8ToFollow > 0) {
             if ((byteToProcess & 0b11000000) == 0b10000000) {
@@ -467,6 +678,39 @@ public final class TerminalEmulator {
     }
 
     public void processCodePoint(int b) {
+        final int characterClass = (b >= 0 && b < 128) ? CHARACTER_CLASSES[b] : CLASS_NON_ASCII;
+        switch (PARSER_ACTIONS[mEscapeState][characterClass]) {
+            case ACTION_PRINT:
+                emitCodePoint(b);
+                break;
+            case ACTION_PARAM:
+                parseArg(b);
+                break;
+            case ACTION_OSC_PUT:
+                collectOSCArgs(b);
+                break;
+            case ACTION_DCS_PUT:
+                collectDeviceControlArgs(b);
+                break;
+            case ACTION_EXECUTE:
+                // Not counting ESC or string terminators, which are part of escape sequences:
+                if (mMetrics != null && mEscapeState == ESC_NONE && b != 27)
+                    mMetrics.mSequences[SessionMetrics.SEQUENCE_CONTROL]++;
+                executeControl(b);
+                break;
+            case ACTION_DISPATCH:
+                if (mMetrics != null && mEscapeState == ESC) mMetrics.countEscapeSequence(b);
+                mContinueSequence = false;
+                doEscapeState(b);
+                if (!mContinueSequence) mEscapeState = ESC_NONE;
+                break;
+            default: // ACTION_IGNORE.
+                break;
+        }
+    }
+
+    /** Execute one of the C0 controls of class {@link #CLASS_C0_EXECUTE}, which may appear in any escape state. */
+    private void executeControl(int b) {
         switch (b) {
             case 0: // Null character (NUL, ^@). Do nothing.
                 break;
@@ -531,272 +775,270 @@ public final class TerminalEmulator {
                     doOsc(b);
                 }
                 break;
-            default:
-                mContinueSequence = false;
-                switch (mEscapeState) {
-                    case ESC_NONE:
-                        if (b >= 32) emitCodePoint(b);
-                        break;
-                    case ESC:
-                        doEsc(b);
-                        break;
-                    case ESC_POUND:
-                        doEscPound(b);
-                        break;
-                    case ESC_SELECT_LEFT_PAREN: // Designate G0 Character Set (ISO 2022, VT100).
-                        mUseLineDrawingG0 = (b == '0');
-                        break;
-                    case ESC_SELECT_RIGHT_PAREN: // Designate G1 Character Set (ISO 2022, VT100).
-                        mUseLineDrawingG1 = (b == '0');
-                        break;
-                    case ESC_CSI:
-                        doCsi(b);
+        }
+    }
+
+    /** Process a character in an escape sequence which is not handled directly by {@link #PARSER_ACTIONS}. */
+    private void doEscapeState(int b) {
+        switch (mEscapeState) {
+            case ESC:
+                doEsc(b);
+                break;
+            case ESC_POUND:
+                doEscPound(b);
+                break;
+            case ESC_SELECT_LEFT_PAREN: // Designate G0 Character Set (ISO 2022, VT100).
+                mUseLineDrawingG0 = (b == '0');
+                break;
+            case ESC_SELECT_RIGHT_PAREN: // Designate G1 Character Set (ISO 2022, VT100).
+                mUseLineDrawingG1 = (b == '0');
+                break;
+            case ESC_CSI:
+                doCsi(b);
+                break;
+            case ESC_CSI_EXCLAMATION:
+                if (b == 'p') { // Soft terminal reset (DECSTR, http://vt100.net/docs/vt510-rm/DECSTR).
+                    reset();
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            case ESC_CSI_QUESTIONMARK:
+                doCsiQuestionMark(b);
+                break;
+            case ESC_CSI_BIGGERTHAN:
+                doCsiBiggerThan(b);
+                break;
+            case ESC_CSI_DOLLAR:
+                boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
+                int effectiveTopMargin = originMode ? mTopMargin : 0;
+                int effectiveBottomMargin = originMode ? mBottomMargin : mRows;
+                int effectiveLeftMargin = originMode ? mLeftMargin : 0;
+                int effectiveRightMargin = originMode ? mRightMargin : mColumns;
+                switch (b) {
+                    case 'v': // ${CSI}${SRC_TOP}${SRC_LEFT}${SRC_BOTTOM}${SRC_RIGHT}${SRC_PAGE}${DST_TOP}${DST_LEFT}${DST_PAGE}$v"
+                        // Copy rectangular area (DECCRA - http://vt100.net/docs/vt510-rm/DECCRA):
+                        // "If Pbs is greater than Pts, or Pls is greater than Prs, the terminal ignores DECCRA.
+                        // The coordinates of the rectangular area are affected by the setting of origin mode (DECOM).
+                        // DECCRA is not affected by the page margins.
+                        // The copied text takes on the line attributes of the destination area.
+                        // If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, then the value
+                        // is treated as the width or height of that page.
+                        // If the destination area is partially off the page, then DECCRA clips the off-page data.
+                        // DECCRA does not change the active cursor position."
+                        int topSource = Math.min(getArg(0, 1, true) - 1 + effectiveTopMargin, mRows);
+                        int leftSource = Math.min(getArg(1, 1, true) - 1 + effectiveLeftMargin, mColumns);
+                        // Inclusive, so do not subtract one:
+                        int bottomSource = Math.min(Math.max(getArg(2, mRows, true) + effectiveTopMargin, topSource), mRows);
+                        int rightSource = Math.min(Math.max(getArg(3, mColumns, true) + effectiveLeftMargin, leftSource), mColumns);
+                        // int sourcePage = getArg(4, 1, true);
+                        int destionationTop = Math.min(getArg(5, 1, true) - 1 + effectiveTopMargin, mRows);
+                        int destinationLeft = Math.min(getArg(6, 1, true) - 1 + effectiveLeftMargin, mColumns);
+                        // int destinationPage = getArg(7, 1, true);
+                        int heightToCopy = Math.min(mRows - destionationTop, bottomSource - topSource);
+                        int widthToCopy = Math.min(mColumns - destinationLeft, rightSource - leftSource);
+                        mScreen.blockCopy(leftSource, topSource, widthToCopy, heightToCopy, destinationLeft, destionationTop);
                         break;
-                    case ESC_CSI_EXCLAMATION:
-                        if (b == 'p') { // Soft terminal reset (DECSTR, http://vt100.net/docs/vt510-rm/DECSTR).
-                            reset();
-                        } else {
-                            unknownSequence(b);
+                    case '{': // ${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${"
+                        // Selective erase rectangular area (DECSERA - http://www.vt100.net/docs/vt510-rm/DECSERA).
+                    case 'x': // ${CSI}${CHAR};${TOP}${LEFT}${BOTTOM}${RIGHT}$x"
+                        // Fill rectangular area (DECFRA - http://www.vt100.net/docs/vt510-rm/DECFRA).
+                    case 'z': // ${CSI}$${TOP}${LEFT}${BOTTOM}${RIGHT}$z"
+                        // Erase rectangular area (DECERA - http://www.vt100.net/docs/vt510-rm/DECERA).
+                        boolean erase = b != 'x';
+                        boolean selective = b == '{';
+                        // Only DECSERA keeps visual attributes, DECERA does not:
+                        boolean keepVisualAttributes = erase && selective;
+                        int argIndex = 0;
+                        int fillChar = erase ? ' ' : getArg(argIndex++, -1, true);
+                        // "Pch can be any value from 32 to 126 or from 160 to 255. If Pch is not in this range, then the
+                        // terminal ignores the DECFRA command":
+                        if ((fillChar >= 32 && fillChar <= 126) || (fillChar >= 160 && fillChar <= 255)) {
+                            // "If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, the value
+                            // is treated as the width or height of that page."
+                            int top = Math.min(getArg(argIndex++, 1, true) + effectiveTopMargin, effectiveBottomMargin + 1);
+                            int left = Math.min(getArg(argIndex++, 1, true) + effectiveLeftMargin, effectiveRightMargin + 1);
+                            int bottom = Math.min(getArg(argIndex++, mRows, true) + effectiveTopMargin, effectiveBottomMargin);
+                            int right = Math.min(getArg(argIndex, mColumns, true) + effectiveLeftMargin, effectiveRightMargin);
+                            long style = getStyle();
+                            for (int row = top - 1; row < bottom; row++)
+                                for (int col = left - 1; col < right; col++)
+                                    if (!selective || (TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
+                                        mScreen.setChar(col, row, fillChar, keepVisualAttributes ? mScreen.getStyleAt(row, col) : style);
                         }
                         break;
-                    case ESC_CSI_QUESTIONMARK:
-                        doCsiQuestionMark(b);
-                        break;
-                    case ESC_CSI_BIGGERTHAN:
-                        doCsiBiggerThan(b);
-                        break;
-                    case ESC_CSI_DOLLAR:
-                        boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
-                        int effectiveTopMargin = originMode ? mTopMargin : 0;
-                        int effectiveBottomMargin = originMode ? mBottomMargin : mRows;
-                        int effectiveLeftMargin = originMode ? mLeftMargin : 0;
-                        int effectiveRightMargin = originMode ? mRightMargin : mColumns;
-                        switch (b) {
-                            case 'v': // ${CSI}${SRC_TOP}${SRC_LEFT}${SRC_BOTTOM}${SRC_RIGHT}${SRC_PAGE}${DST_TOP}${DST_LEFT}${DST_PAGE}$v"
-                                // Copy rectangular area (DECCRA - http://vt100.net/docs/vt510-rm/DECCRA):
-                                // "If Pbs is greater than Pts, or Pls is greater than Prs, the terminal ignores DECCRA.
-                                // The coordinates of the rectangular area are affected by the setting of origin mode (DECOM).
-                                // DECCRA is not affected by the page margins.
-                                // The copied text takes on the line attributes of the destination area.
-                                // If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, then the value
-                                // is treated as the width or height of that page.
-                                // If the destination area is partially off the page, then DECCRA clips the off-page data.
-                                // DECCRA does not change the active cursor position."
-                                int topSource = Math.min(getArg(0, 1, true) - 1 + effectiveTopMargin, mRows);
-                                int leftSource = Math.min(getArg(1, 1, true) - 1 + effectiveLeftMargin, mColumns);
-                                // Inclusive, so do not subtract one:
-                                int bottomSource = Math.min(Math.max(getArg(2, mRows, true) + effectiveTopMargin, topSource), mRows);
-                                int rightSource = Math.min(Math.max(getArg(3, mColumns, true) + effectiveLeftMargin, leftSource), mColumns);
-                                // int sourcePage = getArg(4, 1, true);
-                                int destionationTop = Math.min(getArg(5, 1, true) - 1 + effectiveTopMargin, mRows);
-                                int destinationLeft = Math.min(getArg(6, 1, true) - 1 + effectiveLeftMargin, mColumns);
-                                // int destinationPage = getArg(7, 1, true);
-                                int heightToCopy = Math.min(mRows - destionationTop, bottomSource - topSource);
-                                int widthToCopy = Math.min(mColumns - destinationLeft, rightSource - leftSource);
-                                mScreen.blockCopy(leftSource, topSource, widthToCopy, heightToCopy, destinationLeft, destionationTop);
-                                break;
-                            case '{': // ${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${"
-                                // Selective erase rectangular area (DECSERA - http://www.vt100.net/docs/vt510-rm/DECSERA).
-                            case 'x': // ${CSI}${CHAR};${TOP}${LEFT}${BOTTOM}${RIGHT}$x"
-                                // Fill rectangular area (DECFRA - http://www.vt100.net/docs/vt510-rm/DECFRA).
-                            case 'z': // ${CSI}$${TOP}${LEFT}${BOTTOM}${RIGHT}$z"
-                                // Erase rectangular area (DECERA - http://www.vt100.net/docs/vt510-rm/DECERA).
-                                boolean erase = b != 'x';
-                                boolean selective = b == '{';
-                                // Only DECSERA keeps visual attributes, DECERA does not:
-                                boolean keepVisualAttributes = erase && selective;
-                                int argIndex = 0;
-                                int fillChar = erase ? ' ' : getArg(argIndex++, -1, true);
-                                // "Pch can be any value from 32 to 126 or from 160 to 255. If Pch is not in this range, then the
-                                // terminal ignores the DECFRA command":
-                                if ((fillChar >= 32 && fillChar <= 126) || (fillChar >= 160 && fillChar <= 255)) {
-                                    // "If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, the value
-                                    // is treated as the width or height of that page."
-                                    int top = Math.min(getArg(argIndex++, 1, true) + effectiveTopMargin, effectiveBottomMargin + 1);
-                                    int left = Math.min(getArg(argIndex++, 1, true) + effectiveLeftMargin, effectiveRightMargin + 1);
-                                    int bottom = Math.min(getArg(argIndex++, mRows, true) + effectiveTopMargin, effectiveBottomMargin);
-                                    int right = Math.min(getArg(argIndex, mColumns, true) + effectiveLeftMargin, effectiveRightMargin);
-                                    long style = getStyle();
-                                    for (int row = top - 1; row < bottom; row++)
-                                        for (int col = left - 1; col < right; col++)
-                                            if (!selective || (TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
-                                                mScreen.setChar(col, row, fillChar, keepVisualAttributes ? mScreen.getStyleAt(row, col) : style);
+                    case 'r': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$r"
+                        // Change attributes in rectangular area (DECCARA - http://vt100.net/docs/vt510-rm/DECCARA).
+                    case 't': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$t"
+                        // Reverse attributes in rectangular area (DECRARA - http://www.vt100.net/docs/vt510-rm/DECRARA).
+                        boolean reverse = b == 't';
+                        // FIXME: "coordinates of the rectangular area are affected by the setting of origin mode (DECOM)".
+                        int top = Math.min(getArg(0, 1, true) - 1, effectiveBottomMargin) + effectiveTopMargin;
+                        int left = Math.min(getArg(1, 1, true) - 1, effectiveRightMargin) + effectiveLeftMargin;
+                        int bottom = Math.min(getArg(2, mRows, true) + 1, effectiveBottomMargin - 1) + effectiveTopMargin;
+                        int right = Math.min(getArg(3, mColumns, true) + 1, effectiveRightMargin - 1) + effectiveLeftMargin;
+                        if (mArgIndex >= 4) {
+                            if (mArgIndex >= mArgs.length) mArgIndex = mArgs.length - 1;
+                            for (int i = 4; i <= mArgIndex; i++) {
+                                int bits = 0;
+                                boolean setOrClear = true; // True if setting, false if clearing.
+                                switch (getArg(i, 0, false)) {
+                                    case 0: // Attributes off (no bold, no underline, no blink, positive image).
+                                        bits = (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE | TextStyle.CHARACTER_ATTRIBUTE_BLINK
+                                            | TextStyle.CHARACTER_ATTRIBUTE_INVERSE);
+                                        if (!reverse) setOrClear = false;
+                                        break;
+                                    case 1: // Bold.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
+                                        break;
+                                    case 4: // Underline.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
+                                        break;
+                                    case 5: // Blink.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
+                                        break;
+                                    case 7: // Negative image.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
+                                        break;
+                                    case 22: // No bold.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
+                                        setOrClear = false;
+                                        break;
+                                    case 24: // No underline.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
+                                        setOrClear = false;
+                                        break;
+                                    case 25: // No blink.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
+                                        setOrClear = false;
+                                        break;
+                                    case 27: // Positive image.
+                                        bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
+                                        setOrClear = false;
+                                        break;
                                 }
-                                break;
-                            case 'r': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$r"
-                                // Change attributes in rectangular area (DECCARA - http://vt100.net/docs/vt510-rm/DECCARA).
-                            case 't': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$t"
-                                // Reverse attributes in rectangular area (DECRARA - http://www.vt100.net/docs/vt510-rm/DECRARA).
-                                boolean reverse = b == 't';
-                                // FIXME: "coordinates of the rectangular area are affected by the setting of origin mode (DECOM)".
-                                int top = Math.min(getArg(0, 1, true) - 1, effectiveBottomMargin) + effectiveTopMargin;
-                                int left = Math.min(getArg(1, 1, true) - 1, effectiveRightMargin) + effectiveLeftMargin;
-                                int bottom = Math.min(getArg(2, mRows, true) + 1, effectiveBottomMargin - 1) + effectiveTopMargin;
-                                int right = Math.min(getArg(3, mColumns, true) + 1, effectiveRightMargin - 1) + effectiveLeftMargin;
-                                if (mArgIndex >= 4) {
-                                    if (mArgIndex >= mArgs.length) mArgIndex = mArgs.length - 1;
-                                    for (int i = 4; i <= mArgIndex; i++) {
-                                        int bits = 0;
-                                        boolean setOrClear = true; // True if setting, false if clearing.
-                                        switch (getArg(i, 0, false)) {
-                                            case 0: // Attributes off (no bold, no underline, no blink, positive image).
-                                                bits = (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE | TextStyle.CHARACTER_ATTRIBUTE_BLINK
-                                                    | TextStyle.CHARACTER_ATTRIBUTE_INVERSE);
-                                                if (!reverse) setOrClear = false;
-                                                break;
-                                            case 1: // Bold.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
-                                                break;
-                                            case 4: // Underline.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
-                                                break;
-                                            case 5: // Blink.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
-                                                break;
-                                            case 7: // Negative image.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
-                                                break;
-                                            case 22: // No bold.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
-                                                setOrClear = false;
-                                                break;
-                                            case 24: // No underline.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
-                                                setOrClear = false;
-                                                break;
-                                            case 25: // No blink.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
-                                                setOrClear = false;
-                                                break;
-                                            case 27: // Positive image.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
-                                                setOrClear = false;
-                                                break;
-                                        }
-                                        if (reverse && !setOrClear) {
-                                            // Reverse attributes in rectangular area ignores non-(1,4,5,7) bits.
-                                        } else {
-                                            mScreen.setOrClearEffect(bits, setOrClear, reverse, isDecsetInternalBitSet(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE),
-                                                effectiveLeftMargin, effectiveRightMargin, top, left, bottom, right);
-                                        }
-                                    }
+                                if (reverse && !setOrClear) {
+                                    // Reverse attributes in rectangular area ignores non-(1,4,5,7) bits.
                                 } else {
-                                    // Do nothing.
+                                    mScreen.setOrClearEffect(bits, setOrClear, reverse, isDecsetInternalBitSet(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE),
+                                        effectiveLeftMargin, effectiveRightMargin, top, left, bottom, right);
                                 }
-                                break;
-                            default:
-                                unknownSequence(b);
-                        }
-                        break;
-                    case ESC_CSI_DOUBLE_QUOTE:
-                        if (b == 'q') {
-                            // http://www.vt100.net/docs/vt510-rm/DECSCA
-                            int arg = getArg0(0);
-                            if (arg == 0 || arg == 2) {
-                                // DECSED and DECSEL can erase characters.
-                                mEffect &= ~TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
-                            } else if (arg == 1) {
-                                // DECSED and DECSEL cannot erase characters.
-                                mEffect |= TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
-                            } else {
-                                unknownSequence(b);
                             }
                         } else {
-                            unknownSequence(b);
+                            // Do nothing.
                         }
                         break;
-                    case ESC_CSI_SINGLE_QUOTE:
-                        if (b == '}') { // Insert Ps Column(s) (default = 1) (DECIC), VT420 and up.
-                            int columnsAfterCursor = mRightMargin - mCursorCol;
-                            int columnsToInsert = Math.min(getArg0(1), columnsAfterCursor);
-                            int columnsToMove = columnsAfterCursor - columnsToInsert;
-                            mScreen.blockCopy(mCursorCol, 0, columnsToMove, mRows, mCursorCol + columnsToInsert, 0);
-                            blockClear(mCursorCol, 0, columnsToInsert, mRows);
-                        } else if (b == '~') { // Delete Ps Column(s) (default = 1) (DECDC), VT420 and up.
-                            int columnsAfterCursor = mRightMargin - mCursorCol;
-                            int columnsToDelete = Math.min(getArg0(1), columnsAfterCursor);
-                            int columnsToMove = columnsAfterCursor - columnsToDelete;
-                            mScreen.blockCopy(mCursorCol + columnsToDelete, 0, columnsToMove, mRows, mCursorCol, 0);
-                            blockClear(mCursorRow + columnsToMove, 0, columnsToDelete, mRows);
-                        } else {
-                            unknownSequence(b);
-                        }
-                        break;
-                    case ESC_PERCENT:
-                        break;
-                    case ESC_OSC:
-                        doOsc(b);
-                        break;
-                    case ESC_OSC_ESC:
-                        doOscEsc(b);
-                        break;
-                    case ESC_P:
-                        doDeviceControl(b);
-                        break;
-                    case ESC_CSI_QUESTIONMARK_ARG_DOLLAR:
-                        if (b == 'p') {
-                            // Request DEC private mode (DECRQM).
-                            int mode = getArg0(0);
-                            int value;
-                            if (mode == 47 || mode == 1047 || mode == 1049) {
-                                // This state is carried by mScreen pointer.
-                                value = (mScreen == mAltBuffer) ? 1 : 2;
-                            } else {
-                                int internalBit = mapDecSetBitToInternalBit(mode);
-                                if (internalBit == -1) {
-                                    value = isDecsetInternalBitSet(internalBit) ? 1 : 2; // 1=set, 2=reset.
-                                } else {
-                                    Log.e(EmulatorDebug.LOG_TAG, "Got DECRQM for unrecognized private DEC mode=" + mode);
-                                    value = 0; // 0=not recognized, 3=permanently set, 4=permanently reset
-                                }
-                            }
-                            mSession.write(String.format(Locale.US, "\033[?%d;%d$y", mode, value));
+                    default:
+                        unknownSequence(b);
+                }
+                break;
+            case ESC_CSI_DOUBLE_QUOTE:
+                if (b == 'q') {
+                    // http://www.vt100.net/docs/vt510-rm/DECSCA
+                    int arg = getArg0(0);
+                    if (arg == 0 || arg == 2) {
+                        // DECSED and DECSEL can erase characters.
+                        mEffect &= ~TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
+                    } else if (arg == 1) {
+                        // DECSED and DECSEL cannot erase characters.
+                        mEffect |= TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
+                    } else {
+                        unknownSequence(b);
+                    }
+                    updateStyle();
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            case ESC_CSI_SINGLE_QUOTE:
+                if (b == '}') { // Insert Ps Column(s) (default = 1) (DECIC), VT420 and up.
+                    int columnsAfterCursor = mRightMargin - mCursorCol;
+                    int columnsToInsert = Math.min(getArg0(1), columnsAfterCursor);
+                    int columnsToMove = columnsAfterCursor - columnsToInsert;
+                    mScreen.blockCopy(mCursorCol, 0, columnsToMove, mRows, mCursorCol + columnsToInsert, 0);
+                    blockClear(mCursorCol, 0, columnsToInsert, mRows);
+                } else if (b == '~') { // Delete Ps Column(s) (default = 1) (DECDC), VT420 and up.
+                    int columnsAfterCursor = mRightMargin - mCursorCol;
+                    int columnsToDelete = Math.min(getArg0(1), columnsAfterCursor);
+                    int columnsToMove = columnsAfterCursor - columnsToDelete;
+                    mScreen.blockCopy(mCursorCol + columnsToDelete, 0, columnsToMove, mRows, mCursorCol, 0);
+                    blockClear(mCursorCol + columnsToMove, 0, columnsToDelete, mRows);
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            case ESC_PERCENT:
+                break;
+            case ESC_OSC:
+                doOsc(b);
+                break;
+            case ESC_OSC_ESC:
+                doOscEsc(b);
+                break;
+            case ESC_P:
+                doDeviceControl(b);
+                break;
+            case ESC_CSI_QUESTIONMARK_ARG_DOLLAR:
+                if (b == 'p') {
+                    // Request DEC private mode (DECRQM).
+                    int mode = getArg0(0);
+                    int value;
+                    if (mode == 47 || mode == 1047 || mode == 1049) {
+                        // This state is carried by mScreen pointer.
+                        value = (mScreen == mAltBuffer) ? 1 : 2;
+                    } else {
+                        int internalBit = mapDecSetBitToInternalBit(mode);
+                        if (internalBit == -1) {
+                            value = isDecsetInternalBitSet(internalBit) ? 1 : 2; // 1=set, 2=reset.
                         } else {
-                            unknownSequence(b);
+                            EmulatorDebug.logError("Got DECRQM for unrecognized private DEC mode=" + mode);
+                            value = 0; // 0=not recognized, 3=permanently set, 4=permanently reset
                         }
-                        break;
-                    case ESC_CSI_ARGS_SPACE:
-                        int arg = getArg0(0);
-                        switch (b) {
-                            case 'q': // "${CSI}${STYLE} q" - set cursor style (http://www.vt100.net/docs/vt510-rm/DECSCUSR).
-                                switch (arg) {
-                                    case 0: // Blinking block.
-                                    case 1: // Blinking block.
-                                    case 2: // Steady block.
-                                        mCursorStyle = CURSOR_STYLE_BLOCK;
-                                        break;
-                                    case 3: // Blinking underline.
-                                    case 4: // Steady underline.
-                                        mCursorStyle = CURSOR_STYLE_UNDERLINE;
-                                        break;
-                                    case 5: // Blinking bar (xterm addition).
-                                    case 6: // Steady bar (xterm addition).
-                                        mCursorStyle = CURSOR_STYLE_BAR;
-                                        break;
-                                }
+                    }
+                    mSession.write(String.format(Locale.US, "\033[?%d;%d$y", mode, value));
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            case ESC_CSI_ARGS_SPACE:
+                int arg = getArg0(0);
+                switch (b) {
+                    case 'q': // "${CSI}${STYLE} q" - set cursor style (http://www.vt100.net/docs/vt510-rm/DECSCUSR).
+                        switch (arg) {
+                            case 0: // Blinking block.
+                            case 1: // Blinking block.
+                            case 2: // Steady block.
+                                mCursorStyle = CURSOR_STYLE_BLOCK;
                                 break;
-                            case 't':
-                            case 'u':
-                                // Set margin-bell volume - ignore.
+                            case 3: // Blinking underline.
+                            case 4: // Steady underline.
+                                mCursorStyle = CURSOR_STYLE_UNDERLINE;
+                                break;
+                            case 5: // Blinking bar (xterm addition).
+                            case 6: // Steady bar (xterm addition).
+                                mCursorStyle = CURSOR_STYLE_BAR;
                                 break;
-                            default:
-                                unknownSequence(b);
                         }
                         break;
-                    case ESC_CSI_ARGS_ASTERIX:
-                        int attributeChangeExtent = getArg0(0);
-                        if (b == 'x' && (attributeChangeExtent >= 0 && attributeChangeExtent <= 2)) {
-                            // Select attribute change extent (DECSACE - http://www.vt100.net/docs/vt510-rm/DECSACE).
-                            setDecsetinternalBit(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE, attributeChangeExtent == 2);
-                        } else {
-                            unknownSequence(b);
-                        }
+                    case 't':
+                    case 'u':
+                        // Set margin-bell volume - ignore.
                         break;
                     default:
                         unknownSequence(b);
-                        break;
                 }
-                if (!mContinueSequence) mEscapeState = ESC_NONE;
+                break;
+            case ESC_CSI_ARGS_ASTERIX:
+                int attributeChangeExtent = getArg0(0);
+                if (b == 'x' && (attributeChangeExtent >= 0 && attributeChangeExtent <= 2)) {
+                    // Select attribute change extent (DECSACE - http://www.vt100.net/docs/vt510-rm/DECSACE).
+                    setDecsetinternalBit(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE, attributeChangeExtent == 2);
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            default:
+                unknownSequence(b);
                 break;
         }
     }
@@ -806,17 +1048,17 @@ public final class TerminalEmulator {
         switch (b) {
             case (byte) '\\': // End of ESC \ string Terminator
             {
-                String dcs = mOSCOrDeviceControlArgs.toString();
                 // DCS $ q P t ST. Request Status String (DECRQSS)
-                if (dcs.startsWith("$q")) {
-                    if (dcs.equals("$q\"p")) {
+                if (oscOrDeviceControlArgsStartWith("$q")) {
+                    if (mOSCOrDeviceControlArgsLength == 4 && oscOrDeviceControlArgsStartWith("$q\"p")) {
                         // DECSCL, conformance level, http://www.vt100.net/docs/vt510-rm/DECSCL:
                         String csiString = "64;1\"p";
                         mSession.write("\033P1$r" + csiString + "\033\\");
                     } else {
-                        finishSequenceAndLogError("Unrecognized DECRQSS string: '" + dcs + "'");
+                        finishSequenceAndLogError("Unrecognized DECRQSS string: '"
+                            + new String(mOSCOrDeviceControlArgs, 0, mOSCOrDeviceControlArgsLength) + "'");
                     }
-                } else if (dcs.startsWith("+q")) {
+                } else if (oscOrDeviceControlArgsStartWith("+q")) {
                     // Request Termcap/Terminfo String. The string following the "q" is a list of names encoded in
                     // hexadecimal (2 digits per character) separated by ; which correspond to termcap or terminfo key
                     // names.
@@ -854,14 +1096,30 @@ public final class TerminalEmulator {
                     // respond, as well as http://www.freebsd.org/cgi/man.cgi?query=termcap&sektion=5#CAPABILITIES for
                     // the meaning of e.g. "ku", "kd", "kr", "kl"
 
-                    for (String part : dcs.substring(2).split(";")) {
-                        if (part.length() % 2 == 0) {
-                            StringBuilder transBuffer = new StringBuilder();
-                            for (int i = 0; i < part.length(); i += 2) {
-                                char c = (char) Long.decode("0x" + part.charAt(i) + "" + part.charAt(i + 1)).longValue();
-                                transBuffer.append(c);
+                    for (int partStart = 2, partEnd; partStart < mOSCOrDeviceControlArgsLength; partStart = partEnd + 1) {
+                        partEnd = partStart;
+                        while (partEnd < mOSCOrDeviceControlArgsLength && mOSCOrDeviceControlArgs[partEnd] != ';')
+                            partEnd++;
+                        int partLength = partEnd - partStart;
+                        if (partLength == 0) continue;
+                        String part = new String(mOSCOrDeviceControlArgs, partStart, partLength);
+
+                        // Decode the hexadecimal name in place, overwriting the start of the part:
+                        int transLength = 0;
+                        if (partLength % 2 == 0) {
+                            for (int i = partStart; i < partEnd; i += 2) {
+                                int high = hexDigit(mOSCOrDeviceControlArgs[i]);
+                                int low = hexDigit(mOSCOrDeviceControlArgs[i + 1]);
+                                if (high < 0 || low < 0) {
+                                    transLength = -1;
+                                    break;
+                                }
+                                mOSCOrDeviceControlArgs[partStart + transLength++] = (char) ((high << 4) | low);
                             }
-                            String trans = transBuffer.toString();
+                        }
+
+                        if (transLength > 0) {
+                            String trans = new String(mOSCOrDeviceControlArgs, partStart, transLength);
                             String responseValue;
                             switch (trans) {
                                 case "Co":
@@ -883,7 +1141,7 @@ public final class TerminalEmulator {
                                     case "&8": // Undo key - ignore.
                                         break;
                                     default:
-                                        Log.w(EmulatorDebug.LOG_TAG, "Unhandled termcap/terminfo name: '" + trans + "'");
+                                        EmulatorDebug.logWarning("Unhandled termcap/terminfo name: '" + trans + "'");
                                 }
                                 // Respond with invalid request:
                                 mSession.write("\033P0+r" + part + "\033\\");
@@ -895,28 +1153,49 @@ public final class TerminalEmulator {
                                 mSession.write("\033P1+r" + part + "=" + hexEncoded + "\033\\");
                             }
                         } else {
-                            Log.e(EmulatorDebug.LOG_TAG, "Invalid device termcap/terminfo name of odd length: " + part);
+                            EmulatorDebug.logError("Invalid device termcap/terminfo name of odd length or non-hexadecimal: " + part);
                         }
                     }
                 } else {
                     if (LOG_ESCAPE_SEQUENCES)
-                        Log.e(EmulatorDebug.LOG_TAG, "Unrecognized device control string: " + dcs);
+                        EmulatorDebug.logError("Unrecognized device control string: "
+                            + new String(mOSCOrDeviceControlArgs, 0, mOSCOrDeviceControlArgsLength));
                 }
                 finishSequence();
             }
             break;
             default:
-                if (mOSCOrDeviceControlArgs.length() > MAX_OSC_STRING_LENGTH) {
-                    // Too long.
-                    mOSCOrDeviceControlArgs.setLength(0);
-                    finishSequence();
-                } else {
-                    mOSCOrDeviceControlArgs.appendCodePoint(b);
-                    continueSequence(mEscapeState);
-                }
+                collectDeviceControlArgs(b);
         }
     }
 
+    private void collectDeviceControlArgs(int b) {
+        if (mOSCOrDeviceControlArgsLength > MAX_OSC_STRING_LENGTH) {
+            // Too long.
+            mOSCOrDeviceControlArgsLength = 0;
+            finishSequence();
+        } else {
+            mOSCOrDeviceControlArgsLength += Character.toChars(b, mOSCOrDeviceControlArgs, mOSCOrDeviceControlArgsLength);
+            continueSequence(mEscapeState);
+        }
+    }
+
+    /** If the collected OSC or DCS string starts with the specified prefix. */
+    private boolean oscOrDeviceControlArgsStartWith(String prefix) {
+        if (mOSCOrDeviceControlArgsLength < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (mOSCOrDeviceControlArgs[i] != prefix.charAt(i)) return false;
+        return true;
+    }
+
+    /** Decode a single hexadecimal digit in a DCS string, returning -1 if not valid. */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        return -1;
+    }
+
     private int nextTabStop(int numTabs) {
         for (int i = mCursorCol + 1; i < mColumns; i++)
             if (mTabStop[i] && --numTabs == 0) return Math.min(i, mRightMargin);
@@ -990,7 +1269,7 @@ public final class TerminalEmulator {
                     int externalBit = mArgs[i];
                     int internalBit = mapDecSetBitToInternalBit(externalBit);
                     if (internalBit == -1) {
-                        Log.w(EmulatorDebug.LOG_TAG, "Ignoring request to save/recall decset bit=" + externalBit);
+                        EmulatorDebug.logWarning("Ignoring request to save/recall decset bit=" + externalBit);
                     } else {
                         if (b == 's') {
                             mSavedDecSetFlags |= internalBit;
@@ -1073,12 +1352,16 @@ public final class TerminalEmulator {
             case 1049: {
                 // Set: Save cursor as in DECSC and use Alternate Screen Buffer, clearing it first.
                 // Reset: Use Normal Screen Buffer and restore cursor as in DECRC.
+                if (setting && mAltBuffer == null) mAltBuffer = new TerminalBuffer(mColumns, mRows, mRows);
                 TerminalBuffer newScreen = setting ? mAltBuffer : mMainBuffer;
                 if (newScreen != mScreen) {
                     boolean resized = !(newScreen.mColumns == mColumns && newScreen.mScreenRows == mRows);
                     if (setting) saveCursor();
                     mScreen = newScreen;
-                    if (!setting) {
+                    if (setting) {
+                        // Clear the alt buffer a row at a time, resizing it without reflowing what is cleared anyway:
+                        newScreen.clearAll(mColumns, mRows, mRows, getStyle());
+                    } else {
                         int col = mSavedStateMain.mSavedCursorCol;
                         int row = mSavedStateMain.mSavedCursorRow;
                         restoreCursor();
@@ -1086,13 +1369,9 @@ public final class TerminalEmulator {
                             // Restore cursor position _not_ clipped to current screen (let resizeScreen() handle that):
                             mCursorCol = col;
                             mCursorRow = row;
+                            resizeScreen();
                         }
                     }
-                    // Check if buffer size needs to be updated:
-                    if (resized) resizeScreen();
-                    // Clear new screen if alt buffer:
-                    if (newScreen == mAltBuffer)
-                        newScreen.blockSet(0, 0, mColumns, mRows, ' ', getStyle());
                 }
                 break;
             }
@@ -1177,7 +1456,7 @@ public final class TerminalEmulator {
                 // (1) enables this feature for keys except for those with well-known behavior, e.g., Tab, Backarrow and
                 // some special control character cases, e.g., Control-Space to make a NUL.
                 // (2) enables this feature for keys including the exceptions listed.
-                Log.e(EmulatorDebug.LOG_TAG, "(ignored) CSI > MODIFY RESOURCE: " + getArg0(-1) + " to " + getArg1(-1));
+                EmulatorDebug.logError("(ignored) CSI > MODIFY RESOURCE: " + getArg0(-1) + " to " + getArg1(-1));
                 break;
             default:
                 parseArg(b);
@@ -1292,7 +1571,7 @@ public final class TerminalEmulator {
             case '0': // SS3, ignore.
                 break;
             case 'P': // Device control string
-                mOSCOrDeviceControlArgs.setLength(0);
+                mOSCOrDeviceControlArgsLength = 0;
                 continueSequence(ESC_P);
                 break;
             case '[':
@@ -1302,7 +1581,8 @@ public final class TerminalEmulator {
                 setDecsetinternalBit(DECSET_BIT_APPLICATION_KEYPAD, true);
                 break;
             case ']': // OSC
-                mOSCOrDeviceControlArgs.setLength(0);
+                mOSCOrDeviceControlArgsLength = 0;
+                mDecodingClipboard = false;
                 continueSequence(ESC_OSC);
                 break;
             case '>': // DECKPNM
@@ -1335,6 +1615,7 @@ public final class TerminalEmulator {
         mEffect = state.mSavedEffect;
         mForeColor = state.mSavedForeColor;
         mBackColor = state.mSavedBackColor;
+        updateStyle();
         int mask = (DECSET_BIT_AUTOWRAP | DECSET_BIT_ORIGIN_MODE);
         mCurrentDecSetFlags = (mCurrentDecSetFlags & ~mask) | (state.mSavedDecFlags & mask);
         mUseLineDrawingG0 = state.mUseLineDrawingG0;
@@ -1720,7 +2001,7 @@ public final class TerminalEmulator {
                 int firstArg = mArgs[i + 1];
                 if (firstArg == 2) {
                     if (i + 4 > mArgIndex) {
-                        Log.w(EmulatorDebug.LOG_TAG, "Too few CSI" + code + ";2 RGB arguments");
+                        EmulatorDebug.logWarning("Too few CSI" + code + ";2 RGB arguments");
                     } else {
                         int red = mArgs[i + 2], green = mArgs[i + 3], blue = mArgs[i + 4];
                         if (red < 0 || green < 0 || blue < 0 || red > 255 || green > 255 || blue > 255) {
@@ -1745,7 +2026,7 @@ public final class TerminalEmulator {
                             mBackColor = color;
                         }
                     } else {
-                        if (LOG_ESCAPE_SEQUENCES) Log.w(EmulatorDebug.LOG_TAG, "Invalid color index: " + color);
+                        if (LOG_ESCAPE_SEQUENCES) EmulatorDebug.logWarning("Invalid color index: " + color);
                     }
                 } else {
                     finishSequenceAndLogError("Invalid ISO-8613-3 SGR first argument: " + firstArg);
@@ -1762,9 +2043,10 @@ public final class TerminalEmulator {
                 mBackColor = code - 100 + 8;
             } else {
                 if (LOG_ESCAPE_SEQUENCES)
-                    Log.w(EmulatorDebug.LOG_TAG, String.format("SGR unknown code %d", code));
+                    EmulatorDebug.logWarning(String.format("SGR unknown code %d", code));
             }
         }
+        updateStyle();
     }
 
     private void doOsc(int b) {
@@ -1799,12 +2081,12 @@ public final class TerminalEmulator {
     /** An Operating System Controls (OSC) Set Text Parameters. May come here from BEL or ST. */
     private void doOscSetTextParameters(String bellOrStringTerminator) {
         int value = -1;
-        String textParameter = "";
+        int textStart = mOSCOrDeviceControlArgsLength;
         // Extract initial $value from initial "$value;..." string.
-        for (int mOSCArgTokenizerIndex = 0; mOSCArgTokenizerIndex < mOSCOrDeviceControlArgs.length(); mOSCArgTokenizerIndex++) {
-            char b = mOSCOrDeviceControlArgs.charAt(mOSCArgTokenizerIndex);
+        for (int mOSCArgTokenizerIndex = 0; mOSCArgTokenizerIndex < mOSCOrDeviceControlArgsLength; mOSCArgTokenizerIndex++) {
+            char b = mOSCOrDeviceControlArgs[mOSCArgTokenizerIndex];
             if (b == ';') {
-                textParameter = mOSCOrDeviceControlArgs.substring(mOSCArgTokenizerIndex + 1);
+                textStart = mOSCArgTokenizerIndex + 1;
                 break;
             } else if (b >= '0' && b <= '9') {
                 value = ((value < 0) ? 0 : value * 10) + (b - '0');
@@ -1813,12 +2095,16 @@ public final class TerminalEmulator {
                 return;
             }
         }
+        int textLength = mOSCOrDeviceControlArgsLength - textStart;
+        // Titles and clipboard data, which may be sent frequently or be large, are handled without a string copy:
+        boolean textNeeded = !(value >= 0 && value <= 2) && value != 52;
+        String textParameter = textNeeded ? new String(mOSCOrDeviceControlArgs, textStart, textLength) : null;
 
         switch (value) {
             case 0: // Change icon name and window title to T.
             case 1: // Change icon name to T.
             case 2: // Change window title to T.
-                setTitle(textParameter);
+                setTitle(mOSCOrDeviceControlArgs, textStart, textLength);
                 break;
             case 4:
                 // P s = 4 ; c ; spec → Change Color Number c to the color specified by spec. This can be a name or RGB
@@ -1891,12 +2177,18 @@ public final class TerminalEmulator {
                 }
                 break;
             case 52: // Manipulate Selection Data. Skip the optional first selection parameter(s).
-                int startIndex = textParameter.indexOf(";") + 1;
-                try {
-                    String clipboardText = new String(Base64.decode(textParameter.substring(startIndex), 0), StandardCharsets.UTF_8);
+                if (!mDecodingClipboard) {
+                    // No selection parameter, so the data was collected as text.
+                    mClipboardDecoder.reset(mMaxClipboardBytes);
+                    for (int i = textStart; i < mOSCOrDeviceControlArgsLength; i++)
+                        mClipboardDecoder.decode(mOSCOrDeviceControlArgs[i]);
+                }
+                mDecodingClipboard = false;
+                String clipboardText = mClipboardDecoder.finish();
+                if (clipboardText == null) {
+                    EmulatorDebug.logError("OSC Manipulate selection, invalid or too large data");
+                } else {
                     mSession.clipboardText(clipboardText);
-                } catch (Exception e) {
-                    Log.e(EmulatorDebug.LOG_TAG, "OSC Manipulate selection, invalid string '" + textParameter + "");
                 }
                 break;
             case 104:
@@ -1950,7 +2242,11 @@ public final class TerminalEmulator {
     }
 
     private long getStyle() {
-        return TextStyle.encode(mForeColor, mBackColor, mEffect);
+        return mStyle;
+    }
+
+    private void updateStyle() {
+        mStyle = TextStyle.encode(mForeColor, mBackColor, mEffect);
     }
 
     /** "CSI P_m h" for set or "CSI P_m l" for reset ANSI mode. */
@@ -1991,6 +2287,7 @@ public final class TerminalEmulator {
 
     private void scrollDownOneLine() {
         mScrollCounter++;
+        if (mMetrics != null) mMetrics.mScrolls++;
         if (mLeftMargin != 0 || mRightMargin != mColumns) {
             // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
             mScreen.blockCopy(mLeftMargin, mTopMargin + 1, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - 1, mLeftMargin, mTopMargin);
@@ -2043,14 +2340,37 @@ public final class TerminalEmulator {
     }
 
     private void collectOSCArgs(int b) {
-        if (mOSCOrDeviceControlArgs.length() < MAX_OSC_STRING_LENGTH) {
-            mOSCOrDeviceControlArgs.appendCodePoint(b);
+        if (mDecodingClipboard) {
+            mClipboardDecoder.decode(b);
+            continueSequence(mEscapeState);
+        } else if (mOSCOrDeviceControlArgsLength < MAX_OSC_STRING_LENGTH) {
+            mOSCOrDeviceControlArgsLength += Character.toChars(b, mOSCOrDeviceControlArgs, mOSCOrDeviceControlArgsLength);
+            if (b == ';' && oscOrDeviceControlArgsStartWith("52;")) {
+                // Decode the data after "52;$selection;" directly instead of collecting it.
+                boolean selectionCollected = false;
+                for (int i = 3; i < mOSCOrDeviceControlArgsLength; i++) {
+                    if (mOSCOrDeviceControlArgs[i] == ';') {
+                        selectionCollected = (i == mOSCOrDeviceControlArgsLength - 1);
+                        break;
+                    }
+                }
+                if (selectionCollected) {
+                    mClipboardDecoder.reset(mMaxClipboardBytes);
+                    mDecodingClipboard = true;
+                }
+            }
             continueSequence(mEscapeState);
         } else {
             unknownSequence(b);
         }
     }
 
+    /** Set the maximum number of decoded bytes accepted from OSC 52 clipboard sequences. Larger pastes are dropped. */
+    public void setMaxClipboardBytes(int maxClipboardBytes) {
+        if (maxClipboardBytes < 0) throw new IllegalArgumentException("Negative limit: " + maxClipboardBytes);
+        mMaxClipboardBytes = maxClipboardBytes;
+    }
+
     private void unimplementedSequence(int b) {
         logError("Unimplemented sequence char '" + (char) b + "' (U+" + String.format("%04x", b) + ")");
         finishSequence();
@@ -2092,7 +2412,7 @@ public final class TerminalEmulator {
     }
 
     private void finishSequenceAndLogError(String error) {
-        if (LOG_ESCAPE_SEQUENCES) Log.w(EmulatorDebug.LOG_TAG, error);
+        if (LOG_ESCAPE_SEQUENCES) EmulatorDebug.logWarning(error);
         finishSequence();
     }
 
@@ -2270,6 +2590,28 @@ public final class TerminalEmulator {
         mAboutToAutoWrap = false;
     }
 
+    /** The approximate memory used by the history of the normal screen buffer, in bytes. */
+    public long getTranscriptBytes() {
+        return mMainBuffer.getTranscriptBytes();
+    }
+
+    /**
+     * Free memory by dropping the oldest lines of history until the rest fits in the specified number of bytes, see
+     * {@link TerminalBuffer#trimTranscript(long)}, and the alternate screen buffer if not in use, as it is cleared on
+     * the next switch to it anyway.
+     *
+     * @return the approximate number of bytes freed.
+     */
+    public long trimTranscript(long maxBytes) {
+        long freedBytes = mMainBuffer.trimTranscript(maxBytes);
+        if (mAltBuffer != null && mScreen != mAltBuffer) {
+            for (TerminalRow line : mAltBuffer.mLines)
+                if (line != null) freedBytes += line.getMemoryBytes();
+            mAltBuffer = null;
+        }
+        return freedBytes;
+    }
+
     public int getScrollCounter() {
         return mScrollCounter;
     }
@@ -2291,6 +2633,7 @@ public final class TerminalEmulator {
         mAboutToAutoWrap = false;
         mForeColor = mSavedStateMain.mSavedForeColor = mSavedStateAlt.mSavedForeColor = TextStyle.COLOR_INDEX_FOREGROUND;
         mBackColor = mSavedStateMain.mSavedBackColor = mSavedStateAlt.mSavedBackColor = TextStyle.COLOR_INDEX_BACKGROUND;
+        updateStyle();
         setDefaultTabStops();
 
         mUseLineDrawingG0 = mUseLineDrawingG1 = false;
@@ -2320,6 +2663,22 @@ public final class TerminalEmulator {
         return mTitle;
     }
 
+    /** Change the terminal session's title to the specified part of a char array, only creating a string if changed. */
+    private void setTitle(char[] text, int start, int length) {
+        String oldTitle = mTitle;
+        if (oldTitle != null && oldTitle.length() == length) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (oldTitle.charAt(i) != text[start + i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) return;
+        }
+        setTitle(new String(text, start, length));
+    }
+
     /** Change the terminal session's title. */
     private void setTitle(String newTitle) {
         String oldTitle = mTitle;
@@ -2329,15 +2688,58 @@ public final class TerminalEmulator {
         }
     }
 
-    /** If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~". */
+    /**
+     * If DECSET 2004 is set, prefix paste with "\033[200~" and suffix with "\033[201~".
+     * <p>
+     * The text is filtered and encoded to UTF-8 in one pass, and written all at once so that the session can hand it to
+     * the process in large chunks.
+     */
     public void paste(String text) {
-        // First: Always remove escape key and C1 control characters [0x80,0x9F]:
-        text = text.replaceAll("(\u001B|[\u0080-\u009F])", "");
-        // Then: Implement bracketed paste mode if enabled:
+        final byte[] bracketStart = {27, '[', '2', '0', '0', '~'};
+        final byte[] bracketEnd = {27, '[', '2', '0', '1', '~'};
         boolean bracketed = isDecsetInternalBitSet(DECSET_BIT_BRACKETED_PASTE_MODE);
-        if (bracketed) mSession.write("\033[200~");
-        mSession.write(text);
-        if (bracketed) mSession.write("\033[201~");
+        int length = text.length();
+        // At most three bytes per char, since code points needing four bytes take two chars:
+        byte[] bytes = new byte[length * 3 + (bracketed ? bracketStart.length + bracketEnd.length : 0)];
+        int position = 0;
+        if (bracketed) {
+            System.arraycopy(bracketStart, 0, bytes, 0, bracketStart.length);
+            position = bracketStart.length;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            // Always remove escape key and C1 control characters [0x80,0x9F]:
+            if (c == 27 || (c >= 0x80 && c <= 0x9F)) continue;
+            int codePoint = c;
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, text.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced like by String.getBytes():
+                codePoint = '?';
+            }
+            if (codePoint < 0x80) {
+                bytes[position++] = (byte) codePoint;
+            } else if (codePoint < 0x800) {
+                bytes[position++] = (byte) (0b11000000 | (codePoint >> 6));
+                bytes[position++] = (byte) (0b10000000 | (codePoint & 0b111111));
+            } else if (codePoint < 0x10000) {
+                bytes[position++] = (byte) (0b11100000 | (codePoint >> 12));
+                bytes[position++] = (byte) (0b10000000 | ((codePoint >> 6) & 0b111111));
+                bytes[position++] = (byte) (0b10000000 | (codePoint & 0b111111));
+            } else {
+                bytes[position++] = (byte) (0b11110000 | (codePoint >> 18));
+                bytes[position++] = (byte) (0b10000000 | ((codePoint >> 12) & 0b111111));
+                bytes[position++] = (byte) (0b10000000 | ((codePoint >> 6) & 0b111111));
+                bytes[position++] = (byte) (0b10000000 | (codePoint & 0b111111));
+            }
+        }
+        if (bracketed) {
+            System.arraycopy(bracketEnd, 0, bytes, position, bracketEnd.length);
+            position += bracketEnd.length;
+        }
+        // The session may keep the array while the process reads a large paste, so do not hold on to the unused part:
+        if (position < bytes.length) bytes = Arrays.copyOf(bytes, position);
+        mSession.writeOwned(bytes, position);
     }
 
     /** http://www.vt100.net/docs/vt510-rm/DECSC */
@@ -14,6 +14,14 @@ public abstract class TerminalOutput {
     /** Write bytes to the terminal client. */
     public abstract void write(byte[] data, int offset, int count);
 
+    /**
+     * Write the first bytes of an array which the caller does not use afterwards, so that the client may keep it instead
+     * of a copy.
+     */
+    public void writeOwned(byte[] data, int count) {
+        write(data, 0, count);
+    }
+
     /** Notify the terminal client that the terminal title has changed. */
     public abstract void titleChanged(String oldTitle, String newTitle);
 
@@ -11,8 +11,14 @@ public final class TerminalRow {
 
     private static final float SPARE_CAPACITY_FACTOR = 1.5f;
 
+    /**
+     * Max number of java chars a column may use, so that combining characters cannot grow the row (whose length is kept
+     * in a short) without bound. Further combining characters are dropped.
+     */
+    private static final int MAX_CHARS_PER_COLUMN = 16;
+
     /** The number of columns in this terminal row. */
-    private final int mColumns;
+    final int mColumns;
     /** The text filling this terminal row. */
     public char[] mText;
     /** The number of java char:s used in {@link #mText}. */
@@ -21,6 +27,13 @@ public final class TerminalRow {
     boolean mLineWrap;
     /** The style bits of each cell in the row. See {@link TextStyle}. */
     final long[] mStyle;
+    /** Incremented on every change of this row, so that {@link ScreenDiffer} can tell if it has changed. */
+    long mVersion;
+    /**
+     * If the row may hold characters which are wide, combining or need two java chars, so that columns do not map
+     * directly to indices in {@link #mText}. Only reset when the whole row is overwritten.
+     */
+    private boolean mHasComplexChars;
 
     /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
     public TerminalRow(int columns, long style) {
@@ -30,6 +43,11 @@ public final class TerminalRow {
         clear(style);
     }
 
+    /** The approximate memory used by this row, in bytes, counting the arrays and a guess of the object overheads. */
+    public long getMemoryBytes() {
+        return 64 + 2L * mText.length + 8L * mStyle.length;
+    }
+
     /** NOTE: The sourceX2 is exclusive. */
     public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
         final int x1 = line.findStartOfColumn(sourceX1);
@@ -113,17 +131,48 @@ public final class TerminalRow {
     }
 
     public void clear(long style) {
+        mVersion++;
         Arrays.fill(mText, ' ');
         Arrays.fill(mStyle, style);
         mSpaceUsed = (short) mColumns;
+        mLineWrap = false;
+        mHasComplexChars = false;
+    }
+
+    /**
+     * Set the columns from startColumn (inclusive) to endColumn (exclusive) to a code point with a style, as when
+     * erasing. This is the same as {@link #setChar(int, int, long)} on each column, but if the code point is a single
+     * java char of width one and either the whole row is filled or the row holds no wide or combining characters, the
+     * text and style are just filled in.
+     */
+    public void fill(int startColumn, int endColumn, int codePoint, long style) {
+        if (startColumn >= endColumn) return;
+        boolean simpleCodePoint = codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT && WcWidth.width(codePoint) == 1;
+        if (simpleCodePoint && startColumn == 0 && endColumn == mColumns) {
+            mVersion++;
+            Arrays.fill(mText, 0, mColumns, (char) codePoint);
+            Arrays.fill(mStyle, style);
+            mSpaceUsed = (short) mColumns;
+            mHasComplexChars = false;
+        } else if (simpleCodePoint && !mHasComplexChars) {
+            // Each column is one java char at the same index:
+            mVersion++;
+            Arrays.fill(mText, startColumn, endColumn, (char) codePoint);
+            Arrays.fill(mStyle, startColumn, endColumn, style);
+        } else {
+            for (int column = startColumn; column < endColumn; column++)
+                setChar(column, codePoint, style);
+        }
     }
 
     // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
     public void setChar(int columnToSet, int codePoint, long style) {
+        mVersion++;
         mStyle[columnToSet] = style;
 
         final int newCodePointDisplayWidth = WcWidth.width(codePoint);
         final boolean newIsCombining = newCodePointDisplayWidth <= 0;
+        if (newCodePointDisplayWidth != 1 || codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) mHasComplexChars = true;
 
         boolean wasExtraColForWideChar = (columnToSet > 0) && wideDisplayCharacterStartingAt(columnToSet - 1);
 
@@ -156,9 +205,9 @@ public final class TerminalRow {
         if (newIsCombining) {
             // Combining characters are added to the contents of the column instead of overwriting them, so that they
             // modify the existing contents.
-            // FIXME: Put a limit of combining characters.
             // FIXME: Unassigned characters also get width=0.
             newCharactersUsedForColumn += oldCharactersUsedForColumn;
+            if (newCharactersUsedForColumn > MAX_CHARS_PER_COLUMN) return;
         }
 
         int oldNextColumnIndex = oldStartOfColumnIndex + oldCharactersUsedForColumn;
@@ -170,9 +219,10 @@ public final class TerminalRow {
             int oldCharactersAfterColumn = mSpaceUsed - oldNextColumnIndex;
             if (mSpaceUsed + javaCharDifference > text.length) {
                 // We need to grow the array
-                char[] newText = new char[text.length + mColumns];
+                char[] newText = TerminalRowPool.obtainText(text.length + mColumns);
                 System.arraycopy(text, 0, newText, 0, oldStartOfColumnIndex + oldCharactersUsedForColumn);
                 System.arraycopy(text, oldNextColumnIndex, newText, newNextColumnIndex, oldCharactersAfterColumn);
+                TerminalRowPool.recycleText(text);
                 mText = text = newText;
             } else {
                 System.arraycopy(text, oldNextColumnIndex, text, newNextColumnIndex, oldCharactersAfterColumn);
@@ -190,9 +240,10 @@ public final class TerminalRow {
         if (oldCodePointDisplayWidth == 2 && newCodePointDisplayWidth == 1) {
             // Replace second half of wide char with a space. Which mean that we actually add a ' ' java character.
             if (mSpaceUsed + 1 > text.length) {
-                char[] newText = new char[text.length + mColumns];
+                char[] newText = TerminalRowPool.obtainText(text.length + mColumns);
                 System.arraycopy(text, 0, newText, 0, newNextColumnIndex);
                 System.arraycopy(text, newNextColumnIndex, newText, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
+                TerminalRowPool.recycleText(text);
                 mText = text = newText;
             } else {
                 System.arraycopy(text, newNextColumnIndex, text, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
@@ -0,0 +1,120 @@
+package com.termux.terminal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycled {@link TerminalRow}:s and row text arrays, so that the storage of rows dropped by a resize or by clearing
+ * the alternate screen buffer, and of text arrays replaced when a row grows, is reused instead of allocated again and
+ * collected. Rows dropped by trimming the history are not recycled, since that is done to give memory back when the
+ * pool is emptied as well.
+ * <p>
+ * Rows are kept by their number of columns and text arrays by their length, as that is what they can be reused for.
+ * Resizing back and forth between two widths, as when rotating the device, then reuses the rows of the previous width.
+ * The pool holds at most {@link #MAX_POOLED_BYTES}, and may be emptied with {@link #clear()} when memory is low.
+ * <p>
+ * May be used from any thread, but is normally only used on the main thread where the emulators run.
+ */
+public final class TerminalRowPool {
+
+    /** The most memory kept in the pool, which is about the history of a session on a phone. */
+    private static final long MAX_POOLED_BYTES = 2 * 1024 * 1024;
+
+    /** Recycled items of one size, the number of columns of rows or the length of text arrays. */
+    private static final class SizeClass<T> {
+        final int mSize;
+        final List<T> mItems = new ArrayList<>();
+
+        SizeClass(int size) {
+            mSize = size;
+        }
+    }
+
+    private static final List<SizeClass<TerminalRow>> sRows = new ArrayList<>();
+    private static final List<SizeClass<char[]>> sTexts = new ArrayList<>();
+    private static long sPooledBytes;
+
+    private TerminalRowPool() {
+    }
+
+    /** A blank row with the specified style, recycled if possible. */
+    static TerminalRow obtainRow(int columns, long style) {
+        TerminalRow row;
+        synchronized (TerminalRowPool.class) {
+            row = take(sRows, columns);
+            if (row != null) sPooledBytes -= row.getMemoryBytes();
+        }
+        if (row == null) return new TerminalRow(columns, style);
+        row.clear(style);
+        return row;
+    }
+
+    /** Give back a row which is no longer referenced from any buffer. */
+    static void recycleRow(TerminalRow row) {
+        long bytes = row.getMemoryBytes();
+        synchronized (TerminalRowPool.class) {
+            if (sPooledBytes + bytes > MAX_POOLED_BYTES) return;
+            sPooledBytes += bytes;
+            put(sRows, row.mColumns, row);
+        }
+    }
+
+    /** A text array of the specified length, recycled if possible, whose contents are undefined. */
+    static char[] obtainText(int length) {
+        synchronized (TerminalRowPool.class) {
+            char[] text = take(sTexts, length);
+            if (text != null) {
+                sPooledBytes -= 2L * length;
+                return text;
+            }
+        }
+        return new char[length];
+    }
+
+    /** Give back a text array which is no longer referenced from any row. */
+    static void recycleText(char[] text) {
+        synchronized (TerminalRowPool.class) {
+            if (sPooledBytes + 2L * text.length > MAX_POOLED_BYTES) return;
+            sPooledBytes += 2L * text.length;
+            put(sTexts, text.length, text);
+        }
+    }
+
+    /**
+     * Drop all recycled rows and arrays, as when the system is low on memory.
+     *
+     * @return the approximate number of bytes freed.
+     */
+    public static synchronized long clear() {
+        long freedBytes = sPooledBytes;
+        sRows.clear();
+        sTexts.clear();
+        sPooledBytes = 0;
+        return freedBytes;
+    }
+
+    private static <T> T take(List<SizeClass<T>> sizeClasses, int size) {
+        for (int i = 0; i < sizeClasses.size(); i++) {
+            SizeClass<T> sizeClass = sizeClasses.get(i);
+            if (sizeClass.mSize != size) continue;
+            T item = sizeClass.mItems.remove(sizeClass.mItems.size() - 1);
+            // Only a few sizes are in use at a time, so drop the classes not holding anything:
+            if (sizeClass.mItems.isEmpty()) sizeClasses.remove(i);
+            return item;
+        }
+        return null;
+    }
+
+    private static <T> void put(List<SizeClass<T>> sizeClasses, int size, T item) {
+        for (int i = 0; i < sizeClasses.size(); i++) {
+            if (sizeClasses.get(i).mSize == size) {
+                sizeClasses.get(i).mItems.add(item);
+                return;
+            }
+        }
+        SizeClass<T> sizeClass = new SizeClass<>(size);
+        sizeClass.mItems.add(item);
+        sizeClasses.add(sizeClass);
+    }
+
+}
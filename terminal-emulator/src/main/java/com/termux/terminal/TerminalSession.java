@@ -3,18 +3,17 @@ package com.termux.terminal;
 import android.annotation.SuppressLint;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
 import android.util.Log;
 
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -46,42 +45,65 @@ public final class TerminalSession extends TerminalOutput {
 
     }
 
-    private static FileDescriptor wrapFileDescriptor(int fileDescriptor) {
-        FileDescriptor result = new FileDescriptor();
-        try {
-            Field descriptorField;
-            try {
-                descriptorField = FileDescriptor.class.getDeclaredField("descriptor");
-            } catch (NoSuchFieldException e) {
-                // For desktop java:
-                descriptorField = FileDescriptor.class.getDeclaredField("fd");
-            }
-            descriptorField.setAccessible(true);
-            descriptorField.set(result, fileDescriptor);
-        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException e) {
-            Log.wtf(EmulatorDebug.LOG_TAG, "Error accessing FileDescriptor#descriptor private field", e);
-            System.exit(1);
-        }
-        return result;
-    }
-
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
 
+    /** How long input is collected in background mode before being processed as one batch. */
+    private static final int BACKGROUND_INPUT_DELAY_MILLIS = 250;
+
+    /** The most input appended to the emulator at once when not in background mode, so that the screen is updated. */
+    private static final int RECEIVE_CHUNK_BYTES = 4 * 1024;
+
+    /** The period over which {@link #setMaxBytesPerFrame(int)} limits processed input, that of a 60 Hz display. */
+    private static final int FRAME_MILLIS = 16;
+
+    /** Value for {@link #setMaxBytesPerFrame(int)} to process all input as soon as possible. */
+    public static final int UNLIMITED_BYTES_PER_FRAME = 0;
+    public static final int DEFAULT_MAX_BYTES_PER_FRAME = 64 * 1024;
+
+    /**
+     * The most output which may wait in {@link #mPendingOutput} for a process not reading its input, past which more
+     * is dropped, see {@link #tryWrite(byte[], int, int)}. Enough for pasting large texts.
+     */
+    static final int MAX_PENDING_OUTPUT_BYTES = 8 * 1024 * 1024;
+
+    static {
+        // Sessions always run on Android, so let the emulator log to logcat.
+        EmulatorDebug.setLogger(new EmulatorDebug.Logger() {
+            @Override
+            public void logWarning(String tag, String message) {
+                Log.w(tag, message);
+            }
+
+            @Override
+            public void logError(String tag, String message) {
+                Log.e(tag, message);
+            }
+        });
+    }
+
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
-     * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * A queue written to from the {@link PtyMultiplexer} thread when the process outputs, and read by main thread to
+     * process by terminal emulator.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(64 * 1024);
     /**
-     * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * A queue written to from the main thread due to user interaction, and read by the {@link PtyMultiplexer} thread
+     * which forwards by writing to the {@link #mTerminalFileDescriptor}.
      */
     final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    /**
+     * Output to the process which did not fit in {@link #mTerminalToProcessIOQueue}, such as a large paste, which the
+     * multiplexer writes after the queue as fast as the process accepts it. This way the main thread never blocks on
+     * a process not reading its input. Guarded by itself, which also makes checking it and writing to the queue atomic.
+     */
+    final ArrayDeque<byte[]> mPendingOutput = new ArrayDeque<>();
+    /** The bytes in {@link #mPendingOutput} not yet written. Guarded by {@link #mPendingOutput}. */
+    int mPendingOutputBytes;
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
@@ -103,21 +125,71 @@ public final class TerminalSession extends TerminalOutput {
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
 
+    /** Records the input to the emulator if non-null, see {@link #startRecording(OutputStream)}. */
+    private SessionRecorder mRecorder;
+
+    /** The pseudoterminal as serviced by the {@link PtyMultiplexer}, or null if not yet started. */
+    private PtyMultiplexer.Channel mChannel;
+
+    /** If in background mode, see {@link #setBackground(boolean, boolean)}. Also read by the multiplexer thread. */
+    private volatile boolean mBackground;
+    /** If the multiplexer should read output from the process with lower priority than that of other sessions. */
+    volatile boolean mLowPriority;
+
+    /** Null unless enabled by {@link #setMetricsEnabled(boolean)}. Only accessed on the main thread. */
+    private SessionMetrics mMetrics;
+
+    /** See {@link #setMaxBytesPerFrame(int)}. */
+    private int mMaxBytesPerFrame = DEFAULT_MAX_BYTES_PER_FRAME;
+    /** The start of the current frame as by {@link SystemClock#uptimeMillis()}, and the input processed during it. */
+    private long mFrameStartMillis;
+    private int mBytesThisFrame;
+
     @SuppressLint("HandlerLeak")
     final Handler mMainThreadHandler = new Handler() {
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
             if (msg.what == MSG_NEW_INPUT && isRunning()) {
-                int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-                if (bytesRead > 0) {
-                    mEmulator.append(mReceiveBuffer, bytesRead);
-                    notifyScreenUpdate();
+                if (mMetrics != null) mMetrics.mMessages++;
+                long now = SystemClock.uptimeMillis();
+                if (now - mFrameStartMillis >= FRAME_MILLIS) {
+                    mFrameStartMillis = now;
+                    mBytesThisFrame = 0;
+                }
+                int maxBytesPerFrame = mMaxBytesPerFrame;
+                boolean limited = maxBytesPerFrame != UNLIMITED_BYTES_PER_FRAME;
+
+                // In background mode all queued input is processed as one batch, otherwise one chunk per message so
+                // that the screen is updated in between.
+                int totalRead = 0, bytesRead;
+                do {
+                    bytesRead = appendQueuedInput(limited ? maxBytesPerFrame - mBytesThisFrame : Integer.MAX_VALUE);
+                    mBytesThisFrame += bytesRead;
+                    totalRead += bytesRead;
+                } while (bytesRead > 0 && mBackground);
+                if (totalRead > 0) notifyScreenUpdate();
+
+                // Input left after leaving background mode or over the limit, for which the multiplexer may not
+                // send a message:
+                if (mProcessToTerminalIOQueue.available() > 0 && !hasMessages(MSG_NEW_INPUT)) {
+                    if (limited && mBytesThisFrame >= maxBytesPerFrame) {
+                        // Leave the rest in the queue until the next frame. If the queue fills up the multiplexer
+                        // stops reading, which in turn blocks the process when writing to the terminal.
+                        sendEmptyMessageAtTime(MSG_NEW_INPUT, mFrameStartMillis + FRAME_MILLIS);
+                    } else {
+                        sendEmptyMessage(MSG_NEW_INPUT);
+                    }
                 }
             } else if (msg.what == MSG_PROCESS_EXITED) {
+                // Process output held back by background mode or the input limit before the queue is closed:
+                int bytesRead;
+                do {
+                    bytesRead = appendQueuedInput(Integer.MAX_VALUE);
+                } while (bytesRead > 0);
+
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
+                stopRecording();
                 mChangeCallback.onSessionFinished(TerminalSession.this);
 
                 String exitDescription = "\r\n[Process completed";
@@ -135,6 +207,38 @@ public final class TerminalSession extends TerminalOutput {
                 notifyScreenUpdate();
             }
         }
+
+        /** Append at most maxBytes of the queued input to the emulator without blocking, returning the bytes appended. */
+        int appendQueuedInput(int maxBytes) {
+            if (maxBytes <= 0) return 0;
+            // In background mode large batches let the emulator fast forward through floods of output.
+            if (!mBackground) maxBytes = Math.min(maxBytes, RECEIVE_CHUNK_BYTES);
+            // The input is parsed in place in the queue, and only freed for the multiplexer to read into after that:
+            ByteQueue queue = mProcessToTerminalIOQueue;
+            int length = queue.readableLength();
+            if (length <= 0) return 0;
+            byte[] buffer = queue.array();
+            int offset = queue.readOffset();
+            int bytesRead = Math.min(length, maxBytes);
+            if (mRecorder != null) {
+                try {
+                    mRecorder.recordInput(buffer, offset, bytesRead);
+                } catch (IOException e) {
+                    recordingFailed(e);
+                }
+            }
+            SessionMetrics metrics = mMetrics;
+            if (metrics == null) {
+                mEmulator.append(buffer, offset, bytesRead);
+            } else {
+                long startNanos = System.nanoTime();
+                mEmulator.append(buffer, offset, bytesRead);
+                metrics.countBatch(bytesRead, System.nanoTime() - startNanos);
+            }
+            queue.commitRead(bytesRead);
+            PtyMultiplexer.get().inputTaken(mChannel);
+            return bytesRead;
+        }
     };
 
     private final String mShellPath;
@@ -155,10 +259,47 @@ public final class TerminalSession extends TerminalOutput {
     public void updateSize(int columns, int rows) {
         if (mEmulator == null) {
             initializeEmulator(columns, rows);
-        } else {
+        } else if (columns != mEmulator.mColumns || rows != mEmulator.mRows) {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns);
             mEmulator.resize(columns, rows);
+            if (mRecorder != null) {
+                try {
+                    mRecorder.recordResize(columns, rows);
+                } catch (IOException e) {
+                    recordingFailed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start recording the output of the process, as well as resizes, to a stream for replay with {@link SessionReplayer}.
+     * Must be called on the main thread after the emulator has been initialized. The stream is written to on the main
+     * thread, and closed by {@link #stopRecording()} or if the session finishes.
+     */
+    public void startRecording(OutputStream out) throws IOException {
+        stopRecording();
+        mRecorder = new SessionRecorder(out, mEmulator.mColumns, mEmulator.mRows);
+    }
+
+    /** Stop and close any recording started by {@link #startRecording(OutputStream)}. */
+    public void stopRecording() {
+        if (mRecorder == null) return;
+        try {
+            mRecorder.close();
+        } catch (IOException e) {
+            Log.w(EmulatorDebug.LOG_TAG, "Error closing session recording: " + e.getMessage());
         }
+        mRecorder = null;
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    private void recordingFailed(IOException e) {
+        Log.w(EmulatorDebug.LOG_TAG, "Stopping session recording: " + e.getMessage());
+        stopRecording();
     }
 
     /** The terminal title as set through escape sequences or null if none set. */
@@ -174,60 +315,72 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows) {
         mEmulator = new TerminalEmulator(this, columns, rows, /* transcript= */2000);
+        mEmulator.setFastForward(true);
+        mEmulator.setMetrics(mMetrics);
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns);
         mShellPid = processId[0];
 
-        final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor);
-
-        new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
-                    while (true) {
-                        int read = termIn.read(buffer);
-                        if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
-                    }
-                } catch (Exception e) {
-                    // Ignore, just shutting down.
-                }
-            }
-        }.start();
-
-        new Thread("TermSessionOutputWriter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                final byte[] buffer = new byte[4096];
-                try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped)) {
-                    while (true) {
-                        int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
-                        if (bytesToWrite == -1) return;
-                        termOut.write(buffer, 0, bytesToWrite);
-                    }
-                } catch (IOException e) {
-                    // Ignore.
-                }
-            }
-        }.start();
+        mChannel = PtyMultiplexer.get().register(this, mTerminalFileDescriptor, mShellPid);
+    }
 
-        new Thread("TermSessionWaiter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
-            }
-        }.start();
+    /** Called on the multiplexer thread after it has written output from the process to the queue. */
+    void onProcessOutput() {
+        if (!mBackground || mProcessToTerminalIOQueue.available() > mProcessToTerminalIOQueue.capacity() / 2) {
+            // In background mode, only process right away to avoid blocking the process on a full queue.
+            mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+        } else if (!mMainThreadHandler.hasMessages(MSG_NEW_INPUT)) {
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_NEW_INPUT, BACKGROUND_INPUT_DELAY_MILLIS);
+        }
+    }
 
+    /** Called on the multiplexer thread once the process has been reaped and all of its output read. */
+    void onProcessExited(int exitCode) {
+        mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, exitCode));
     }
 
-    /** Write data to the shell process. */
+    /** Write data to the shell process, dropping it if too much output is already waiting, see {@link #tryWrite}. */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        writeOutput(data, offset, count, false);
+    }
+
+    /** Write data to the shell process, keeping the array instead of a copy if it has to wait. */
+    @Override
+    public void writeOwned(byte[] data, int count) {
+        writeOutput(data, 0, count, true);
+    }
+
+    /**
+     * Write data to the shell process, unless more than {@link #MAX_PENDING_OUTPUT_BYTES} would be waiting for it to be
+     * read, as when a client keeps writing to a process not reading its input.
+     *
+     * @return false if the data was dropped.
+     */
+    public boolean tryWrite(byte[] data, int offset, int count) {
+        return writeOutput(data, offset, count, false);
+    }
+
+    private boolean writeOutput(byte[] data, int offset, int count, boolean owned) {
+        if (mShellPid <= 0 || count <= 0) return true;
+        synchronized (mPendingOutput) {
+            // Output only goes in the queue behind pending output, so that it is written in order.
+            ByteQueue queue = mTerminalToProcessIOQueue;
+            if (mPendingOutput.isEmpty() && queue.capacity() - queue.available() >= count) {
+                queue.write(data, offset, count);
+            } else if (mPendingOutputBytes + (long) count > MAX_PENDING_OUTPUT_BYTES) {
+                Log.w(EmulatorDebug.LOG_TAG, "Dropping " + count + " bytes of output to a process not reading its input");
+                return false;
+            } else {
+                boolean keep = owned && offset == 0 && count == data.length;
+                mPendingOutput.add(keep ? data : Arrays.copyOfRange(data, offset, offset + count));
+                mPendingOutputBytes += count;
+            }
+        }
+        if (mMetrics != null) mMetrics.mBytesOut += count;
+        PtyMultiplexer.get().outputQueued(mChannel);
+        return true;
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -271,6 +424,55 @@ public final class TerminalSession extends TerminalOutput {
         return mEmulator;
     }
 
+    /**
+     * Set if this session is in background mode, used when it is not shown. Input from the process is still processed
+     * so that the emulator state stays correct, but in large batches with one screen update for each.
+     *
+     * @param lowPriority if input from the process should be read with lower priority than that of other sessions while
+     *                    in background mode, which makes a process producing much output slower when others are busy.
+     */
+    public void setBackground(boolean background, boolean lowPriority) {
+        if (background == mBackground && (lowPriority == mLowPriority || !background)) return;
+        mBackground = background;
+        mLowPriority = background && lowPriority;
+        // Process input collected in background mode right away:
+        if (!background) mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+    }
+
+    public boolean isBackground() {
+        return mBackground;
+    }
+
+    /**
+     * Limit how much output from the process is processed on the main thread per display frame, so that a process
+     * flooding the terminal cannot make the app unresponsive. Output over the limit is left in the queue, and once the
+     * queue is full the process blocks when writing to the terminal.
+     *
+     * @param maxBytesPerFrame the limit in bytes, or {@link #UNLIMITED_BYTES_PER_FRAME}.
+     */
+    public void setMaxBytesPerFrame(int maxBytesPerFrame) {
+        if (maxBytesPerFrame < 0) throw new IllegalArgumentException("Negative limit: " + maxBytesPerFrame);
+        mMaxBytesPerFrame = maxBytesPerFrame;
+        // Held back input may now be processed:
+        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+    }
+
+    public int getMaxBytesPerFrame() {
+        return mMaxBytesPerFrame;
+    }
+
+    /** Start or stop collecting {@link SessionMetrics}. Enabling when already enabled keeps the current counts. */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled == (mMetrics != null)) return;
+        mMetrics = enabled ? new SessionMetrics(mProcessToTerminalIOQueue) : null;
+        if (mEmulator != null) mEmulator.setMetrics(mMetrics);
+    }
+
+    /** The metrics of this session, or null if not enabled with {@link #setMetricsEnabled(boolean)}. */
+    public SessionMetrics getMetrics() {
+        return mMetrics;
+    }
+
     /** Notify the {@link #mChangeCallback} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mChangeCallback.onTextChanged(this);
@@ -300,10 +502,14 @@ public final class TerminalSession extends TerminalOutput {
             mShellExitStatus = exitStatus;
         }
 
-        // Stop the reader and writer threads, and close the I/O streams
+        // Stop servicing the pseudoterminal and close it.
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
-        JNI.close(mTerminalFileDescriptor);
+        synchronized (mPendingOutput) {
+            mPendingOutput.clear();
+            mPendingOutputBytes = 0;
+        }
+        PtyMultiplexer.get().close(mChannel);
     }
 
     @Override
@@ -0,0 +1,67 @@
+package com.termux.terminal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reading and writing of the primitive values of the binary formats used for session recordings and screen snapshots:
+ * unsigned LEB128 variable length integers, and strings as the length followed by their UTF-8 bytes.
+ */
+public final class WireFormat {
+
+    private WireFormat() {
+    }
+
+    public static void writeVarInt(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static long readVarInt(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) throw new EOFException();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /** Read a variable length integer which must fit in a non-negative int. */
+    public static int readInt(InputStream in) throws IOException {
+        long value = readVarInt(in);
+        if (value < 0 || value > Integer.MAX_VALUE) throw new IOException("Too large value: " + value);
+        return (int) value;
+    }
+
+    /** Write a string, where null is written as the empty string. */
+    public static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null) ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(InputStream in, int maxLength) throws IOException {
+        int length = readInt(in);
+        if (length > maxLength) throw new IOException("Too long string: " + length);
+        byte[] bytes = new byte[length];
+        readFully(in, bytes, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) throw new EOFException();
+            offset += read;
+        }
+    }
+
+}
@@ -1,15 +1,27 @@
-#include <dirent.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <jni.h>
+#include <limits.h>
+#include <paths.h>
+#include <pthread.h>
 #include <signal.h>
+#include <stdbool.h>
+#include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
 #include <sys/ioctl.h>
+#include <sys/syscall.h>
 #include <sys/wait.h>
 #include <termios.h>
 #include <unistd.h>
 
+#ifdef __ANDROID__
+# include <android/api-level.h>
+#endif
+
 #define TERMUX_UNUSED(x) x __attribute__((__unused__))
 #ifdef __APPLE__
 # define LACKS_PTSNAME_R
@@ -22,6 +34,146 @@ static int throw_runtime_exception(JNIEnv* env, char const* message)
     return -1;
 }
 
+/** Resolve a command without a slash through the PATH of the new environment, as execvp() would. */
+static char const* find_executable(char const* cmd, char** envp, char* buffer, size_t buffer_size)
+{
+    if (strchr(cmd, '/')) return cmd;
+    char const* search_path = _PATH_DEFPATH;
+    if (envp) {
+        for (char** env = envp; *env; ++env) {
+            if (strncmp(*env, "PATH=", 5) == 0) search_path = *env + 5;
+        }
+    }
+    while (*search_path) {
+        char const* end = strchr(search_path, ':');
+        int length = end ? (int) (end - search_path) : (int) strlen(search_path);
+        char const* dir = (length == 0) ? "." : search_path;
+        if (length == 0) length = 1;
+        if (snprintf(buffer, buffer_size, "%.*s/%s", length, dir, cmd) < (int) buffer_size && access(buffer, X_OK) == 0) {
+            return buffer;
+        }
+        if (!end) break;
+        search_path = end + 1;
+    }
+    // Let execve() fail with ENOENT:
+    return cmd;
+}
+
+#if defined(__linux__) && !defined(__NR_close_range)
+# define __NR_close_range 436
+#endif
+
+/**
+ * The first Android release whose seccomp filter for apps allows close_range(2). Earlier releases kill the process
+ * with SIGSYS instead of failing with ENOSYS, even on kernels supporting it, so it must not be tried there.
+ */
+#define CLOSE_RANGE_MIN_API_LEVEL 34
+
+/** If close_range(2) may be called without being killed by a seccomp filter. Called in the parent before vfork(). */
+static bool may_call_close_range()
+{
+#if defined(__ANDROID__)
+    static int allowed = -1;
+    if (allowed == -1) allowed = android_get_device_api_level() >= CLOSE_RANGE_MIN_API_LEVEL;
+    return allowed;
+#elif defined(__linux__)
+    return true;
+#else
+    return false;
+#endif
+}
+
+#ifdef __linux__
+/** An entry as returned by the getdents64(2) system call. */
+struct linux_dirent64 {
+    uint64_t d_ino;
+    int64_t d_off;
+    unsigned short d_reclen;
+    unsigned char d_type;
+    char d_name[];
+};
+#endif
+
+/**
+ * Close all file descriptors above stderr in the child after vfork(), using only system calls. Uses close_range() if
+ * allowed and supported by the kernel, and otherwise closes those listed in /proc/self/fd of the child itself, read
+ * with getdents64() since readdir() allocates. If that fails, every descriptor below max_fd is closed as a last resort.
+ */
+static void close_inherited_fds(bool try_close_range, int max_fd)
+{
+#ifdef __linux__
+    if (try_close_range && syscall(__NR_close_range, 3, UINT_MAX, 0) == 0) return;
+
+    int dir_fd = open("/proc/self/fd", O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (dir_fd >= 0) {
+        char buffer[1024] __attribute__((aligned(8)));
+        long length;
+        // Entries are ordered by descriptor, so closing those already listed does not make later reads skip any:
+        while ((length = syscall(SYS_getdents64, dir_fd, buffer, sizeof(buffer))) > 0) {
+            for (long offset = 0; offset < length;) {
+                struct linux_dirent64* entry = (struct linux_dirent64*) (buffer + offset);
+                offset += entry->d_reclen;
+                char const* digit = entry->d_name;
+                // Skip "." and "..":
+                if (*digit < '0' || *digit > '9') continue;
+                int fd = 0;
+                for (; *digit >= '0' && *digit <= '9'; digit++) fd = fd * 10 + (*digit - '0');
+                if (fd > 2 && fd != dir_fd) close(fd);
+            }
+        }
+        close(dir_fd);
+        if (length == 0) return;
+    }
+#endif
+
+    for (int fd = 3; fd < max_fd; fd++) close(fd);
+}
+
+/** Write "call("argument"): error" to stderr using only system calls, for use in the child after vfork(). */
+static void write_error(char const* call, char const* argument, int error)
+{
+    char const* message = strerror(error);
+    write(STDERR_FILENO, call, strlen(call));
+    write(STDERR_FILENO, "(\"", 2);
+    write(STDERR_FILENO, argument, strlen(argument));
+    write(STDERR_FILENO, "\"): ", 4);
+    write(STDERR_FILENO, message, strlen(message));
+    write(STDERR_FILENO, "\n", 1);
+}
+
+/** Set up the child after vfork() to run the command on the pseudoterminal slave. Only makes system calls. */
+__attribute__((noreturn)) static void exec_child(char const* devname,
+        bool try_close_range,
+        int max_fd,
+        char const* cwd,
+        char const* path,
+        char* const argv[],
+        char* const envp[])
+{
+    setsid();
+
+    int pts = open(devname, O_RDWR);
+    if (pts < 0) _exit(-1);
+
+    dup2(pts, 0);
+    dup2(pts, 1);
+    dup2(pts, 2);
+
+    close_inherited_fds(try_close_range, max_fd);
+
+    if (chdir(cwd) != 0) write_error("chdir", cwd, errno);
+
+    // Clear signals which the Android java process may have blocked, as well as those blocked around vfork():
+    sigset_t signals_to_unblock;
+    sigemptyset(&signals_to_unblock);
+    sigprocmask(SIG_SETMASK, &signals_to_unblock, 0);
+
+    execve(path, argv, envp);
+    // Show terminal output about failing exec() call:
+    write_error("exec", path, errno);
+    _exit(1);
+}
+
 static int create_subprocess(JNIEnv* env,
         char const* cmd,
         char const* cwd,
@@ -60,55 +212,33 @@ static int create_subprocess(JNIEnv* env,
     struct winsize sz = { .ws_row = rows, .ws_col = columns };
     ioctl(ptm, TIOCSWINSZ, &sz);
 
-    pid_t pid = fork();
+    // The child shares the memory of this process after vfork() until it execs, so everything it needs is prepared
+    // here and it only makes system calls. This avoids copying the page tables of the large app process on fork().
+    char path_buffer[PATH_MAX];
+    char const* path = find_executable(cmd, envp, path_buffer, sizeof(path_buffer));
+    char* const default_argv[] = { (char*) cmd, NULL };
+    char* const empty_envp[] = { NULL };
+    // Bound for the child to close up to if it can neither use close_range() nor list its open file descriptors:
+    long open_max = sysconf(_SC_OPEN_MAX);
+    int max_fd = (open_max > 0 && open_max < INT_MAX) ? (int) open_max : 1024;
+    bool try_close_range = may_call_close_range();
+
+    // Block signals so that no handler of this process runs in the child before it execs:
+    sigset_t all_signals, old_signals;
+    sigfillset(&all_signals);
+    pthread_sigmask(SIG_SETMASK, &all_signals, &old_signals);
+    pid_t pid = vfork();
+    if (pid == 0) {
+        exec_child(devname, try_close_range, max_fd, cwd, path, argv ? argv : default_argv,
+                envp ? envp : empty_envp);
+    }
+    pthread_sigmask(SIG_SETMASK, &old_signals, NULL);
+
     if (pid < 0) {
         return throw_runtime_exception(env, "Fork failed");
-    } else if (pid > 0) {
+    } else {
         *pProcessId = (int) pid;
         return ptm;
-    } else {
-        // Clear signals which the Android java process may have blocked:
-        sigset_t signals_to_unblock;
-        sigfillset(&signals_to_unblock);
-        sigprocmask(SIG_UNBLOCK, &signals_to_unblock, 0);
-
-        close(ptm);
-        setsid();
-
-        int pts = open(devname, O_RDWR);
-        if (pts < 0) exit(-1);
-
-        dup2(pts, 0);
-        dup2(pts, 1);
-        dup2(pts, 2);
-
-        DIR* self_dir = opendir("/proc/self/fd");
-        if (self_dir != NULL) {
-            int self_dir_fd = dirfd(self_dir);
-            struct dirent* entry;
-            while ((entry = readdir(self_dir)) != NULL) {
-                int fd = atoi(entry->d_name);
-                if(fd > 2 && fd != self_dir_fd) close(fd);
-            }
-            closedir(self_dir);
-        }
-
-        clearenv();
-        if (envp) for (; *envp; ++envp) putenv(*envp);
-
-        if (chdir(cwd) != 0) {
-            char* error_message;
-            // No need to free asprintf()-allocated memory since doing execvp() or exit() below.
-            if (asprintf(&error_message, "chdir(\"%s\")", cwd) == -1) error_message = "chdir()";
-            perror(error_message);
-            fflush(stderr);
-        }
-        execvp(cmd, argv);
-        // Show terminal output about failing exec() call:
-        char* error_message;
-        if (asprintf(&error_message, "exec(\"%s\")", cmd) == -1) error_message = "exec()";
-        perror(error_message);
-        _exit(1);
     }
 }
 
@@ -194,10 +324,86 @@ JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setPtyUTF8Mode(JNIEnv* TERMU
     }
 }
 
-JNIEXPORT int JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_epollCreate(JNIEnv* env, jclass TERMUX_UNUSED(clazz))
+{
+    int epoll_fd = epoll_create1(EPOLL_CLOEXEC);
+    if (epoll_fd < 0) return throw_runtime_exception(env, "epoll_create1() failed");
+    return epoll_fd;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_epollControl(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epoll_fd, jint operation, jint fd, jint events)
+{
+    struct epoll_event event = { .events = (uint32_t) events, .data.fd = fd };
+    if (epoll_ctl(epoll_fd, operation, fd, &event) != 0) throw_runtime_exception(env, "epoll_ctl() failed");
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_epollWait(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epoll_fd, jintArray fds, jintArray events, jint timeout_millis)
+{
+    struct epoll_event ready[64];
+    int max_events = (*env)->GetArrayLength(env, fds);
+    if (max_events > 64) max_events = 64;
+    int count;
+    do {
+        count = epoll_wait(epoll_fd, ready, max_events, timeout_millis);
+    } while (count < 0 && errno == EINTR);
+    if (count < 0) return throw_runtime_exception(env, "epoll_wait() failed");
+
+    jint ready_fds[64];
+    jint ready_events[64];
+    for (int i = 0; i < count; i++) {
+        ready_fds[i] = ready[i].data.fd;
+        ready_events[i] = (jint) ready[i].events;
+    }
+    (*env)->SetIntArrayRegion(env, fds, 0, count, ready_fds);
+    (*env)->SetIntArrayRegion(env, events, 0, count, ready_events);
+    return count;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createEventFd(JNIEnv* env, jclass TERMUX_UNUSED(clazz))
+{
+    int fd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+    if (fd < 0) return throw_runtime_exception(env, "eventfd() failed");
+    return fd;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setNonBlocking(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fd)
+{
+    int flags = fcntl(fd, F_GETFL);
+    if (flags >= 0) fcntl(fd, F_SETFL, flags | O_NONBLOCK);
+}
+
+// The read and write functions work on the Java array in place instead of copying through a temporary buffer, which is
+// fine in a critical region since the file descriptors are non-blocking.
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_read(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jbyteArray buffer, jint offset, jint length)
+{
+    jbyte* bytes = (jbyte*) (*env)->GetPrimitiveArrayCritical(env, buffer, NULL);
+    if (!bytes) return throw_runtime_exception(env, "JNI call GetPrimitiveArrayCritical(buffer) failed");
+    ssize_t bytes_read;
+    do {
+        bytes_read = read(fd, bytes + offset, (size_t) length);
+    } while (bytes_read < 0 && errno == EINTR);
+    int read_errno = errno;
+    (*env)->ReleasePrimitiveArrayCritical(env, buffer, bytes, 0);
+    if (bytes_read < 0) return (read_errno == EAGAIN || read_errno == EWOULDBLOCK) ? 0 : -1;
+    return (bytes_read == 0) ? -1 : (jint) bytes_read;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_write(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jbyteArray buffer, jint offset, jint length)
+{
+    jbyte* bytes = (jbyte*) (*env)->GetPrimitiveArrayCritical(env, buffer, NULL);
+    if (!bytes) return throw_runtime_exception(env, "JNI call GetPrimitiveArrayCritical(buffer) failed");
+    ssize_t bytes_written;
+    do {
+        bytes_written = write(fd, bytes + offset, (size_t) length);
+    } while (bytes_written < 0 && errno == EINTR);
+    int write_errno = errno;
+    (*env)->ReleasePrimitiveArrayCritical(env, buffer, bytes, JNI_ABORT);
+    if (bytes_written < 0) return (write_errno == EAGAIN || write_errno == EWOULDBLOCK) ? 0 : -1;
+    return (jint) bytes_written;
+}
+
+static int exit_status(int status)
 {
-    int status;
-    waitpid(pid, &status, 0);
     if (WIFEXITED(status)) {
         return WEXITSTATUS(status);
     } else if (WIFSIGNALED(status)) {
@@ -208,6 +414,39 @@ JNIEXPORT int JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED
     }
 }
 
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitForAnyChild(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz))
+{
+    siginfo_t info;
+    int result;
+    do {
+        memset(&info, 0, sizeof(info));
+        result = waitid(P_ALL, 0, &info, WEXITED | WNOWAIT);
+    } while (result != 0 && errno == EINTR);
+    return (result == 0) ? info.si_pid : -1;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_tryWaitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+{
+    int status;
+    pid_t result;
+    do {
+        result = waitpid(pid, &status, WNOHANG);
+    } while (result < 0 && errno == EINTR);
+    if (result == 0) return INT_MIN;
+    // Fails with ECHILD if reaped by someone else, in which case the status is lost.
+    return (result < 0) ? 0 : exit_status(status);
+}
+
+JNIEXPORT int JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+{
+    int status;
+    pid_t result;
+    do {
+        result = waitpid(pid, &status, 0);
+    } while (result < 0 && errno == EINTR);
+    return (result < 0) ? 0 : exit_status(status);
+}
+
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fileDescriptor)
 {
     close(fileDescriptor);
@@ -40,6 +40,67 @@ public class ByteQueueTest extends TestCase {
 		}
 	}
 
+	public void testReadLimitedLength() throws Exception {
+		ByteQueue q = new ByteQueue(10);
+		q.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+		assertEquals(8, q.available());
+		byte[] arr = new byte[10];
+		assertEquals(3, q.read(arr, 3, false));
+		assertArrayEquals(new byte[]{1, 2, 3}, new byte[]{arr[0], arr[1], arr[2]});
+		assertEquals(0, arr[3]);
+		assertEquals(5, q.available());
+		// Reading across the end of the ring buffer:
+		q.write(new byte[]{9, 10, 11}, 0, 3);
+		assertEquals(7, q.read(arr, 7, false));
+		assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 9, 10}, new byte[]{arr[0], arr[1], arr[2], arr[3], arr[4], arr[5], arr[6]});
+		assertEquals(1, q.read(arr, 7, false));
+		assertEquals(11, arr[0]);
+		assertEquals(0, q.read(arr, 7, false));
+	}
+
+	public void testInPlace() throws Exception {
+		ByteQueue q = new ByteQueue(5);
+		byte[] array = q.array();
+		assertEquals(0, q.writeOffset());
+		assertEquals(5, q.writableLength());
+		array[0] = 1;
+		array[1] = 2;
+		array[2] = 3;
+		q.commitWrite(3);
+		assertEquals(3, q.available());
+		assertEquals(0, q.readOffset());
+		assertEquals(3, q.readableLength());
+		q.commitRead(2);
+		assertEquals(2, q.readOffset());
+		assertEquals(3, array[q.readOffset()]);
+
+		// The writable region ends at the end of the array, and then continues from the start:
+		assertEquals(3, q.writeOffset());
+		assertEquals(2, q.writableLength());
+		q.commitWrite(2);
+		assertEquals(0, q.writeOffset());
+		assertEquals(2, q.writableLength());
+		q.commitWrite(2);
+		assertEquals(0, q.getWriteStalls());
+		assertEquals(0, q.writableLength());
+		assertEquals(1, q.getWriteStalls());
+
+		// The readable region likewise:
+		assertEquals(3, q.readableLength());
+		q.commitRead(3);
+		assertEquals(0, q.readOffset());
+		assertEquals(2, q.readableLength());
+		try {
+			q.commitRead(3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		q.close();
+		assertEquals(-1, q.readableLength());
+		assertEquals(-1, q.writableLength());
+	}
+
 	public void testWriteNotesClosing() throws Exception {
 		ByteQueue q = new ByteQueue(10);
 		q.close();
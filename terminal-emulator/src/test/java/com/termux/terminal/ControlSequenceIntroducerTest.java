@@ -46,4 +46,18 @@ public class ControlSequenceIntroducerTest extends TerminalTestCase {
         withTerminalSized(5, 2).enterString("abcde\033[2G\033[2b\n").assertLinesAre("aeede", "     ");
     }
 
+	/** CSI Ps ' ~  Delete Ps Column(s) (default = 1) (DECDC), and CSI Ps ' }  Insert Ps Column(s) (DECIC). */
+	public void testDeleteAndInsertColumns() {
+		withTerminalSized(5, 2).enterString("abcde\r\nfghij\033[1;2H\033[2'~").assertLinesAre("ade  ", "fij  ");
+		enterString("\033[2'}").assertLinesAre("a  de", "f  ij");
+	}
+
+	/** C0 controls are executed in the middle of a control sequence without aborting it. */
+	public void testControlCharactersInsideCsi() {
+		withTerminalSized(3, 3).enterString("\033[2\r;2Hx").assertLinesAre("   ", " x ", "   ");
+		withTerminalSized(3, 3).enterString("\033[2\n;3Hx").assertLinesAre("   ", "  x", "   ");
+		// Other C0 controls abort the sequence:
+		withTerminalSized(3, 3).enterString("\033[2\001Hx").assertLinesAre("Hx ", "   ", "   ");
+	}
+
 }
@@ -39,6 +39,20 @@ public class DeviceControlStringTest extends TerminalTestCase {
 		assertCapabilityResponse("kB", "\033[Z");
 	}
 
+	public void testInvalidCapabilityNames() {
+		withTerminalSized(3, 3);
+		// Odd length and non-hexadecimal names are ignored without a response:
+		assertEnteringStringGivesResponse("\033P+q434\033\\", "");
+		assertEnteringStringGivesResponse("\033P+qZZ6f\033\\", "");
+		assertEnteringStringGivesResponse("\033P+qZZ6f;" + hexEncode("Co") + "\033\\", "\033P1+r" + hexEncode("Co") + "=" + hexEncode("256") + "\033\\");
+		enterString("A").assertLinesAre("A  ", "   ", "   ");
+	}
+
+	public void testRequestStatusString() {
+		withTerminalSized(3, 3);
+		assertEnteringStringGivesResponse("\033P$q\"p\033\\", "\033P1$r64;1\"p\033\\");
+	}
+
 	public void testReallyLongDeviceControlString() {
 		withTerminalSized(3, 3).enterString("\033P");
 		for (int i = 0; i < 10000; i++) {
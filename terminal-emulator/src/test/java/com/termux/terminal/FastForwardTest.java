@@ -0,0 +1,144 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FastForwardTest extends TerminalTestCase {
+
+	private TerminalEmulator mReference;
+
+	@Override
+	protected TerminalTestCase withTerminalSized(int columns, int rows) {
+		super.withTerminalSized(columns, rows);
+		mTerminal.setFastForward(true);
+		mReference = new TerminalEmulator(new MockTerminalOutput(), columns, rows, rows * 2);
+		return this;
+	}
+
+	/** Append the input to both emulators in one call and check that the fast forwarded one ends up the same. */
+	private void appendAndCompare(String input) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		mTerminal.append(bytes, bytes.length);
+		mReference.append(bytes, bytes.length);
+		assertInvariants();
+		assertSameState();
+	}
+
+	private void assertSameState() {
+		assertEquals(mReference.getCursorRow(), mTerminal.getCursorRow());
+		assertEquals(mReference.getCursorCol(), mTerminal.getCursorCol());
+		assertEquals(mReference.getScrollCounter(), mTerminal.getScrollCounter());
+		TerminalBuffer expected = mReference.getScreen(), actual = mTerminal.getScreen();
+		assertEquals(expected.getActiveTranscriptRows(), actual.getActiveTranscriptRows());
+		for (int row = -expected.getActiveTranscriptRows(); row < mReference.mRows; row++) {
+			TerminalRow expectedRow = expected.allocateFullLineIfNecessary(expected.externalToInternalRow(row));
+			TerminalRow actualRow = actual.allocateFullLineIfNecessary(actual.externalToInternalRow(row));
+			String message = "row " + row;
+			assertEquals(message, new String(expectedRow.mText, 0, expectedRow.getSpaceUsed()),
+				new String(actualRow.mText, 0, actualRow.getSpaceUsed()));
+			assertTrue(message, Arrays.equals(expectedRow.mStyle, actualRow.mStyle));
+			assertEquals(message, expectedRow.mLineWrap, actualRow.mLineWrap);
+		}
+	}
+
+	private static String lines(int count, String prefix) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++)
+			builder.append(prefix).append(i).append("\r\n");
+		return builder.toString();
+	}
+
+	public void testFloodOfLines() {
+		withTerminalSized(10, 4);
+		appendAndCompare("\033[32mbefore");
+		appendAndCompare(lines(100, "line "));
+		assertLinesAre("line 97   ", "line 98   ", "line 99   ", "          ");
+		// The state continues the same, including the pending wrap and the last character repeated by REP:
+		appendAndCompare("0123456789\033[3b");
+	}
+
+	public void testFloodOfWrappedText() {
+		withTerminalSized(7, 3);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			builder.append((char) ('a' + i % 26));
+		appendAndCompare(builder.toString());
+		appendAndCompare("\n" + builder + "X");
+		appendAndCompare(builder + "\033[2b");
+	}
+
+	public void testLineFeedsWithoutCarriageReturn() {
+		withTerminalSized(5, 3);
+		appendAndCompare("abc" + new String(new char[50]).replace('\0', '\n') + "de");
+	}
+
+	public void testNotSkippedWithinMargins() {
+		withTerminalSized(10, 5);
+		appendAndCompare("\033[2;4r\033[4;1H" + lines(50, ""));
+		appendAndCompare("\033[r\033[?7l" + lines(50, "x") + "\033[?7h");
+	}
+
+	public void testNotSkippedWithoutEnoughScrolls() {
+		withTerminalSized(10, 4);
+		appendAndCompare(lines(8, "a") + "\033[1mbold" + lines(3, "b"));
+	}
+
+	public void testPortionOfBuffer() {
+		withTerminalSized(10, 4);
+		byte[] bytes = ("garbage" + lines(50, "line ") + "garbage").getBytes(StandardCharsets.UTF_8);
+		mTerminal.append(bytes, 7, bytes.length - 14);
+		byte[] portion = lines(50, "line ").getBytes(StandardCharsets.UTF_8);
+		mReference.append(portion, portion.length);
+		assertInvariants();
+		assertSameState();
+	}
+
+	/** Input starting at an offset is processed from there, also when the state rules out skipping any of it. */
+	public void testPortionOfBufferWhenNotSkipped() {
+		// Encoded as ISO-8859-1 so that a UTF-8 sequence can be split, here the two bytes of U+00E5:
+		String[][] setupsAndRests = {
+			{"\033[", "31mtext\r\n"},
+			{"\u00c3", "\u00a5text\r\n"},
+			{"\033[2;4r", "text\r\n"},
+			{"\033[?69h\033[2;5s", "text\r\n"},
+			{"\033[4h", "text\r\n"},
+			{"\033[?7l", "text\r\n"},
+			{"\033(0", "qqq\r\n"},
+		};
+		for (String[] setupAndRest : setupsAndRests) {
+			withTerminalSized(10, 5);
+			byte[] setup = setupAndRest[0].getBytes(StandardCharsets.ISO_8859_1);
+			mTerminal.append(setup, setup.length);
+			mReference.append(setup, setup.length);
+
+			byte[] rest = setupAndRest[1].getBytes(StandardCharsets.ISO_8859_1);
+			byte[] bytes = new byte[rest.length + 20];
+			Arrays.fill(bytes, (byte) 'X');
+			System.arraycopy(rest, 0, bytes, 10, rest.length);
+			mTerminal.append(bytes, 10, rest.length);
+			mReference.append(rest, rest.length);
+			assertInvariants();
+			assertSameState();
+		}
+	}
+
+	public void testRandomInput() {
+		Random random = new Random(42);
+		String[] pieces = {"a", "bc", "0123456789", "\r", "\n", "\r\n", "\033[31m", "\033[0m", "\033[2;1H", "\u00e5", "\t"};
+		for (int i = 0; i < 100; i++) {
+			withTerminalSized(1 + random.nextInt(12), 1 + random.nextInt(6));
+			for (int chunk = 0; chunk < 5; chunk++) {
+				StringBuilder builder = new StringBuilder();
+				int count = random.nextInt(300);
+				for (int j = 0; j < count; j++) {
+					// Mostly plain text, which is what may be skipped:
+					int index = random.nextInt(10) == 0 ? random.nextInt(pieces.length) : random.nextInt(6);
+					builder.append(pieces[index]);
+				}
+				appendAndCompare(builder.toString());
+			}
+		}
+	}
+
+}
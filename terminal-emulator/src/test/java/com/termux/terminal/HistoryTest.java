@@ -30,4 +30,34 @@ public class HistoryTest extends TerminalTestCase {
 		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
 	}
 
+	public void testTrimTranscript() {
+		mTerminal = new TerminalEmulator(mOutput, 3, 2, 10);
+		for (int i = 0; i < 20; i++)
+			enterString(i + "\r\n");
+		assertEquals(8, mTerminal.getScreen().getActiveTranscriptRows());
+		long rowBytes = mTerminal.getScreen().mLines[0].getMemoryBytes();
+		assertEquals(8 * rowBytes, mTerminal.getTranscriptBytes());
+
+		// Room for three and a half rows keeps the newest three:
+		assertEquals(5 * rowBytes, mTerminal.trimTranscript(3 * rowBytes + rowBytes / 2));
+		assertEquals(3, mTerminal.getScreen().getActiveTranscriptRows());
+		assertEquals(3 * rowBytes, mTerminal.getTranscriptBytes());
+		assertLinesAre("19 ", "   ");
+		assertHistoryStartsWith("18 ", "17 ", "16 ");
+		assertInvariants();
+
+		// The history grows again from what was kept:
+		enterString("a\r\nb\r\n");
+		assertEquals(5, mTerminal.getScreen().getActiveTranscriptRows());
+		assertHistoryStartsWith("a  ", "19 ", "18 ", "17 ", "16 ");
+
+		// The alternate buffer is dropped when not in use:
+		enterString("\033[?1049h\033[?1049l");
+		assertEquals(5 * rowBytes + 2 * rowBytes, mTerminal.trimTranscript(0));
+		assertNull(mTerminal.mAltBuffer);
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+		assertLinesAre("b  ", "   ");
+		assertInvariants();
+	}
+
 }
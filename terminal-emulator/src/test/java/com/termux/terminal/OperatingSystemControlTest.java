@@ -1,8 +1,9 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -137,9 +138,60 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertIndexColorsMatch(TerminalColors.COLOR_SCHEME.mDefaultColors);
 	}
 
-	public void disabledTestSetClipboard() {
-		// Cannot run this as a unit test since Base64 is a android.util class.
-		enterString("\033]52;c;" + Base64.encodeToString("Hello, world".getBytes(), 0) + "\007");
+	public void testSetClipboard() {
+		withTerminalSized(3, 3);
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hello, world".getBytes()) + "\007");
+		assertEquals(Collections.singletonList("Hello, world"), mOutput.clipboardPuts);
+		// Without padding, with line breaks and terminated by ST:
+		enterString("\033]52;c;w6UK\r\nYWJj\033\\");
+		// The selection parameter is optional:
+		enterString("\033]52;SGk=\007");
+		assertEquals(Arrays.asList("Hello, world", "å\nabc", "Hi"), mOutput.clipboardPuts);
+		assertLinesAre("   ", "   ", "   ");
+	}
+
+	public void testSetClipboardTooLarge() {
+		withTerminalSized(3, 3);
+		mTerminal.setMaxClipboardBytes(4);
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hello".getBytes()) + "\007");
+		assertTrue(mOutput.clipboardPuts.isEmpty());
+		// Payloads exceeding the OSC string length limit are consumed without being printed:
+		mTerminal.setMaxClipboardBytes(TerminalEmulator.DEFAULT_MAX_CLIPBOARD_BYTES);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			text.append("abcdefghij");
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString(text.toString().getBytes()) + "\007");
+		assertEquals(Collections.singletonList(text.toString()), mOutput.clipboardPuts);
+		enterString("a").assertLinesAre("a  ", "   ", "   ");
+	}
+
+	public void testSetMaxClipboardBytesNegative() {
+		withTerminalSized(3, 3);
+		try {
+			mTerminal.setMaxClipboardBytes(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		// The previous limit is kept:
+		enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hello".getBytes()) + "\007");
+		assertEquals(Collections.singletonList("Hello"), mOutput.clipboardPuts);
+	}
+
+	public void testSetClipboardInvalid() {
+		withTerminalSized(3, 3);
+		enterString("\033]52;c;S\007");
+		enterString("\033]52;c;SGk=SGk=\007");
+		assertTrue(mOutput.clipboardPuts.isEmpty());
+	}
+
+	public void testSettingSameTitleDoesNotNotify() {
+		withTerminalSized(3, 3);
+		enterString("\033]0;Title\007");
+		enterString("\033]2;Title\007");
+		assertEquals(Collections.singletonList(new ChangedTitle(null, "Title")), mOutput.titleChanges);
+		enterString("\033]0;Title2\007");
+		assertEquals(Arrays.asList(new ChangedTitle(null, "Title"), new ChangedTitle("Title", "Title2")), mOutput.titleChanges);
 	}
 
 	public void testResettingTerminalResetsColor() throws Exception {
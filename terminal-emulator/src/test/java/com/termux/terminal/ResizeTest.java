@@ -35,6 +35,22 @@ public class ResizeTest extends TerminalTestCase {
 		resize(3, 3).enterString("\033[?1049lF").assertLinesAre("C  ", "D  ", "EF ");
 	}
 
+	public void testAltBufferClearedAfterResizeInMainBuffer() {
+		withTerminalSized(3, 3).enterString("\033[?1049hxyz\r\nw\033[?1049l").enterString("ab");
+		// The alt buffer keeps its rows while the size is the same:
+		TerminalRow altRow = mTerminal.mAltBuffer.mLines[0];
+		enterString("\033[?1049h").assertLinesAre("   ", "   ", "   ").assertCursorAt(0, 2);
+		assertSame(altRow, mTerminal.getScreen().mLines[0]);
+		enterString("\033[?1049l");
+
+		// It is not reflowed to a new size, just cleared at it with the current style:
+		resize(5, 4).enterString("\033[42m\033[?1049h").assertLinesAre("     ", "     ", "     ", "     ").assertCursorAt(0, 2);
+		assertEquals(2, TextStyle.decodeBackColor(getStyleAt(3, 4)));
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+		assertInvariants();
+		enterString("\033[?1049lc").assertLinesAre("abc  ", "     ", "     ", "     ");
+	}
+
 	public void testResizeAfterNewlineWhenInAltBuffer() {
 		final int rows = 3;
 		final int cols = 3;
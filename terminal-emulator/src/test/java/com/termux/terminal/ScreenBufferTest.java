@@ -37,4 +37,32 @@ public class ScreenBufferTest extends TerminalTestCase {
 		withTerminalSized(5, 3).enterString("ABCDE\r\nFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
 		assertEquals("ABCDE\nFG", mTerminal.getSelectedText(0, 0, 1, 1));
 	}
+
+	public void testAllocatedOnDemand() {
+		mTerminal = new TerminalEmulator(mOutput, 3, 2, 100);
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(4, screen.mLines.length);
+		assertNull(mTerminal.mAltBuffer);
+
+		for (int i = 0; i < 10; i++)
+			enterString(i + "\r\n");
+		assertEquals(16, screen.mLines.length);
+		assertEquals(100, screen.mTotalRows);
+		assertLinesAre("9  ", "   ");
+		assertHistoryStartsWith("8  ", "7  ", "6  ");
+
+		for (int i = 0; i < 200; i++)
+			enterString(i + "\r\n");
+		assertEquals(100, screen.mLines.length);
+		assertEquals(98, screen.getActiveTranscriptRows());
+		assertLinesAre("199", "   ");
+		assertHistoryStartsWith("198", "197");
+
+		enterString("\033[?1049h");
+		assertNotNull(mTerminal.mAltBuffer);
+		assertTrue(mTerminal.isAlternateBufferActive());
+		enterString("\033[?1049l");
+		assertLinesAre("199", "   ");
+	}
+
 }
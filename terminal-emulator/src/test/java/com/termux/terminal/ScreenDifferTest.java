@@ -0,0 +1,112 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class ScreenDifferTest extends TerminalTestCase {
+
+	private ScreenDiffer mDiffer;
+	/** The screen as seen by a client applying the deltas. */
+	private ScreenSnapshot mClientScreen;
+	private int mLastDeltaSize;
+
+	@Override
+	protected TerminalTestCase withTerminalSized(int columns, int rows) {
+		super.withTerminalSized(columns, rows);
+		mDiffer = new ScreenDiffer(mTerminal);
+		mClientScreen = null;
+		return this;
+	}
+
+	/** Send a delta to the client screen and check that it matches, returning if anything was sent. */
+	private boolean sync() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		boolean written = mDiffer.writeDelta(out);
+		mLastDeltaSize = out.size();
+		assertEquals(written, out.size() > 0);
+		if (written) mClientScreen = ScreenDiffer.applyDelta(mClientScreen, new ByteArrayInputStream(out.toByteArray()));
+		ScreenSnapshotTest.assertSnapshotsEqual(ScreenSnapshot.capture(mTerminal), mClientScreen);
+		return written;
+	}
+
+	public void testFirstDeltaContainsScreen() throws IOException {
+		withTerminalSized(5, 3).enterString("\033]0;title\007ab\033[31mc");
+		assertTrue(sync());
+		assertEquals("title", mClientScreen.title);
+		assertFalse(sync());
+	}
+
+	public void testChangedLine() throws IOException {
+		withTerminalSized(10, 5).enterString("one\r\ntwo\r\nthree");
+		sync();
+		int fullSize = mLastDeltaSize;
+		enterString("\033[2;1Hxy");
+		assertTrue(sync());
+		assertTrue(mLastDeltaSize < fullSize / 2);
+	}
+
+	public void testCursorMove() throws IOException {
+		withTerminalSized(10, 5).enterString("hello");
+		sync();
+		enterString("\033[3;4H");
+		assertTrue(sync());
+		// Only the cursor operation and the end:
+		assertEquals(5, mLastDeltaSize);
+		enterString("\033[?25l");
+		assertTrue(sync());
+		assertFalse(mClientScreen.cursorVisible);
+	}
+
+	public void testScrollIsSentAsMove() throws IOException {
+		withTerminalSized(20, 10);
+		for (int i = 0; i < 10; i++)
+			enterString("\r\nline number " + i);
+		sync();
+		int fullSize = mLastDeltaSize;
+		enterString("\r\nnew line");
+		assertTrue(sync());
+		assertTrue(mLastDeltaSize < fullSize / 4);
+
+		// Scrolling inside margins moves the rows in between:
+		enterString("\033[3;8r\033[8;1H\nscrolled");
+		assertTrue(sync());
+		assertTrue(mLastDeltaSize < fullSize / 4);
+	}
+
+	public void testResizeAndReset() throws IOException {
+		withTerminalSized(10, 5).enterString("hello\r\nworld");
+		sync();
+		mTerminal.resize(8, 3);
+		assertTrue(sync());
+		mDiffer.reset();
+		mClientScreen = null;
+		assertTrue(sync());
+	}
+
+	public void testRandomChanges() throws IOException {
+		String[] inputs = {"a", "\u6f22", "é", "\r\n", "\n", "\033[H", "\033[5;3H", "\033[31m", "\033[1;44m", "\033[m",
+			"\033[2J", "\033[K", "\033[1K", "\033[2L", "\033[3M", "\033[2P", "\033[3@", "\033[2;5r", "\033[r", "\033M",
+			"\033[?1049h", "\033[?1049l", "\033[?6h", "\033[?6l", "\033[1;1;3;4;7$r", "\033[2;2;4;6;1$t",
+			"\033[2*x", "\033[*x", "\033[?25l", "\033[?25h", "\033]0;t\007", "\033[2S", "\033[2T", "\033#8",
+			"long text which wraps around the screen"};
+		Random random = new Random(1234);
+		withTerminalSized(12, 6);
+		for (int i = 0; i < 3000; i++) {
+			enterString(inputs[random.nextInt(inputs.length)]);
+			if (random.nextInt(100) == 0) mTerminal.resize(8 + random.nextInt(8), 4 + random.nextInt(4));
+			if (random.nextInt(3) == 0) sync();
+		}
+	}
+
+	public void testInvalidDelta() {
+		try {
+			ScreenDiffer.applyDelta(null, new ByteArrayInputStream(new byte[]{ScreenDiffer.OP_LINE, 0}));
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+}
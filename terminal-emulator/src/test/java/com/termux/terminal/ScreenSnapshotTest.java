@@ -0,0 +1,71 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class ScreenSnapshotTest extends TerminalTestCase {
+
+	private static ScreenSnapshot roundTrip(ScreenSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshot.writeTo(out);
+		return ScreenSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	static void assertSnapshotsEqual(ScreenSnapshot expected, ScreenSnapshot actual) {
+		assertEquals(expected.columns, actual.columns);
+		assertEquals(expected.rows, actual.rows);
+		assertEquals(expected.cursorRow, actual.cursorRow);
+		assertEquals(expected.cursorCol, actual.cursorCol);
+		assertEquals(expected.cursorVisible, actual.cursorVisible);
+		assertEquals(expected.title, actual.title);
+		for (int row = 0; row < expected.rows; row++)
+			assertEquals(expected.getLine(row), actual.getLine(row));
+	}
+
+	public void testRuns() throws IOException {
+		withTerminalSized(6, 2).enterString("ab\033[31mc\033[m");
+		ScreenSnapshot snapshot = ScreenSnapshot.capture(mTerminal);
+		ScreenSnapshot.Line line = snapshot.getLine(0);
+		assertEquals(3, line.getRunCount());
+		assertEquals("ab", line.getRun(0).text);
+		assertEquals(2, line.getRun(0).columns);
+		assertEquals("c", line.getRun(1).text);
+		assertEquals("   ", line.getRun(2).text);
+		assertEquals(3, line.getRun(2).columns);
+		assertEquals("      ", snapshot.getLine(1).getText());
+		assertEquals(0, snapshot.cursorRow);
+		assertEquals(3, snapshot.cursorCol);
+		assertSnapshotsEqual(snapshot, roundTrip(snapshot));
+	}
+
+	public void testWideAndCombiningCharacters() throws IOException {
+		// A wide character covers two columns, and a combining character belongs to the preceding one:
+		withTerminalSized(5, 2).enterString("\u6f22a\u0302\033[1mb");
+		ScreenSnapshot.Line line = ScreenSnapshot.capture(mTerminal).getLine(0);
+		assertEquals(3, line.getRunCount());
+		assertEquals("\u6f22a\u0302", line.getRun(0).text);
+		assertEquals(3, line.getRun(0).columns);
+		assertEquals("b", line.getRun(1).text);
+		assertEquals(" ", line.getRun(2).text);
+	}
+
+	public void testLineWrapAndTitle() throws IOException {
+		withTerminalSized(3, 3).enterString("\033]0;title\007abcd\033[?25l");
+		ScreenSnapshot snapshot = roundTrip(ScreenSnapshot.capture(mTerminal));
+		assertTrue(snapshot.getLine(0).lineWrap);
+		assertFalse(snapshot.getLine(1).lineWrap);
+		assertEquals("title", snapshot.title);
+		assertFalse(snapshot.cursorVisible);
+	}
+
+	public void testInvalidInput() {
+		try {
+			ScreenSnapshot.readFrom(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xFF, 0x7F, 0x7F}));
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.termux.terminal;
+
+public class SessionMetricsTest extends TerminalTestCase {
+
+	private ByteQueue mQueue;
+	private SessionMetrics mMetrics;
+
+	@Override
+	protected TerminalTestCase withTerminalSized(int columns, int rows) {
+		super.withTerminalSized(columns, rows);
+		mQueue = new ByteQueue(4);
+		mMetrics = new SessionMetrics(mQueue);
+		mTerminal.setMetrics(mMetrics);
+		return this;
+	}
+
+	public void testEscapeSequencesByType() {
+		withTerminalSized(10, 3).enterString("a\r\n\033[31mb\033[2J\0337\0338\033]0;title\007\033P$qm\033\\");
+		// The BEL and ESC \ string terminators are part of the OSC and DCS sequences:
+		assertEquals(2, mMetrics.getSequences(SessionMetrics.SEQUENCE_CONTROL));
+		assertEquals(2, mMetrics.getSequences(SessionMetrics.SEQUENCE_ESC));
+		assertEquals(2, mMetrics.getSequences(SessionMetrics.SEQUENCE_CSI));
+		assertEquals(1, mMetrics.getSequences(SessionMetrics.SEQUENCE_OSC));
+		assertEquals(1, mMetrics.getSequences(SessionMetrics.SEQUENCE_DCS));
+	}
+
+	public void testScrolls() {
+		withTerminalSized(3, 2).enterString("a\r\nb\r\nc\r\nabcdefg");
+		assertEquals(4, mMetrics.getScrolls());
+
+		// Lines skipped by fast forward also count:
+		withTerminalSized(3, 2);
+		mTerminal.setFastForward(true);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 20; i++)
+			builder.append("x\n");
+		enterString(builder.toString());
+		assertEquals(19, mMetrics.getScrolls());
+		assertEquals(mTerminal.getScrollCounter(), mMetrics.getScrolls());
+	}
+
+	public void testBatchesFramesAndReset() {
+		withTerminalSized(3, 2);
+		mMetrics.countBatch(100, 2000000);
+		mMetrics.countBatch(50, 4000000);
+		mMetrics.recordFrame(1000000);
+		assertEquals(150, mMetrics.getBytesIn());
+		assertEquals(2, mMetrics.getBatches());
+		assertEquals(6000000, mMetrics.getParseNanos());
+		assertEquals(4000000, mMetrics.getMaxParseNanos());
+		assertEquals(1, mMetrics.getFrames());
+		assertTrue(mMetrics.toString().contains("parse 2 batches, avg 3.00 ms, max 4.00 ms"));
+
+		enterString("\033[m");
+		mMetrics.reset();
+		assertEquals(0, mMetrics.getBytesIn());
+		assertEquals(0, mMetrics.getMaxParseNanos());
+		assertEquals(0, mMetrics.getFrames());
+		assertEquals(0, mMetrics.getSequences(SessionMetrics.SEQUENCE_CSI));
+	}
+
+	public void testQueueStalls() throws InterruptedException {
+		withTerminalSized(3, 2);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				mQueue.write(new byte[6], 0, 6);
+			}
+		};
+		writer.start();
+		byte[] buffer = new byte[4];
+		int read = 0;
+		while (read < 6) {
+			while (mQueue.getWriteStalls() == 0) Thread.sleep(1);
+			read += mQueue.read(buffer, true);
+		}
+		writer.join();
+		assertEquals(1, mMetrics.getQueueStalls());
+		mMetrics.reset();
+		assertEquals(0, mMetrics.getQueueStalls());
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class SessionRecorderTest extends TestCase {
+
+	private static void recordInput(SessionRecorder recorder, String input) throws IOException {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		recorder.recordInput(bytes, 0, bytes.length);
+	}
+
+	private static void append(TerminalEmulator emulator, String input) {
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		emulator.append(bytes, bytes.length);
+	}
+
+	public void testReplayGivesSameScreen() throws Exception {
+		ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(recording, 10, 5);
+		TerminalEmulator expected = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 10, 5, 2000);
+
+		String[] inputs = {"hello\r\n", "\033[31mred\033[m", "ö漢", "\033]0;title\007"};
+		for (String input : inputs) {
+			recordInput(recorder, input);
+			append(expected, input);
+		}
+		recorder.recordResize(20, 3);
+		expected.resize(20, 3);
+		// A large input, which does not fit in the replay buffer:
+		char[] large = new char[10000];
+		Arrays.fill(large, 'x');
+		recordInput(recorder, new String(large));
+		append(expected, new String(large));
+		recorder.close();
+
+		SessionReplayer.Result result = SessionReplayer.replay(new ByteArrayInputStream(recording.toByteArray()), false);
+		assertEquals(20, result.emulator.mColumns);
+		assertEquals(3, result.emulator.mRows);
+		assertEquals("title", result.emulator.getTitle());
+		assertEquals(expected.getScreen().getTranscriptText(), result.emulator.getScreen().getTranscriptText());
+		assertEquals(SessionReplayer.screenHash(expected), SessionReplayer.screenHash(result.emulator));
+		assertEquals(7 + 11 + 5 + 10 + 10000, result.bytes);
+	}
+
+	public void testScreenHashDependsOnStyle() {
+		TerminalEmulator plain = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 5, 2, 10);
+		TerminalEmulator colored = new TerminalEmulator(new TerminalTestCase.MockTerminalOutput(), 5, 2, 10);
+		append(plain, "abc");
+		append(colored, "\033[32mabc");
+		assertFalse(SessionReplayer.screenHash(plain) == SessionReplayer.screenHash(colored));
+	}
+
+	public void testInvalidRecording() throws Exception {
+		try {
+			SessionReplayer.replay(new ByteArrayInputStream("hello".getBytes(StandardCharsets.UTF_8)), false);
+			fail();
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		SessionRecorder recorder = new SessionRecorder(recording, 10, 5);
+		recordInput(recorder, "truncated");
+		recorder.close();
+		byte[] bytes = recording.toByteArray();
+		try {
+			SessionReplayer.replay(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)), false);
+			fail();
+		} catch (EOFException e) {
+			// Expected.
+		}
+	}
+
+}
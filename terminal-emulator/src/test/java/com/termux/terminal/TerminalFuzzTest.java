@@ -0,0 +1,276 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Feeds random and grammar generated input into {@link TerminalEmulator#append(byte[], int)}, checking invariants of the
+ * emulator state after each step and that splitting the same input differently across append() calls gives an identical
+ * result.
+ * <p>
+ * The number of seeds run can be raised with -Dtermux.fuzz.seeds=N. Running {@link #main(String[])} prints a digest of
+ * the final state for each seed, so that the output from two builds can be diffed to show that an optimization does not
+ * change behaviour.
+ */
+public class TerminalFuzzTest extends TestCase {
+
+	private static final int DEFAULT_SEEDS = 100;
+	private static final int STEPS_PER_SEED = 300;
+	/** Screens are at most this high, which keeps them within the transcript sizes used. */
+	private static final int MAX_ROWS = 21;
+
+	private static final String CSI_FINAL_CHARS = "@ABCDEFGHIJKLMPSTXZ`abcdefghlmnqrstuvxz{}~";
+	private static final String[] CSI_PREFIXES = {"", "", "", "?", ">", "!"};
+	private static final String[] CSI_INTERMEDIATES = {"", "", "", "", "$", "\"", " ", "'", "*"};
+	private static final String[] ESC_SEQUENCES = {"7", "8", "c", "D", "E", "H", "M", "N", "0", "=", ">", "#8", "(0", "(B", ")0",
+		"\\", "[", "]", "P", "%"};
+	private static final String[] OSC_TEXTS = {"0;title", "2;", "1;t\u00eftl\u00e9", "4;1;#ff0000", "4;300;?", "10;?", "11;#0a0b0c",
+		"12;rgb:ff/00/00", "52;c;aGVsbG8=", "52;c;\u00e5", "52;aGk=", "104", "104;1;2", "x;y", ""};
+	private static final String[] DCS_TEXTS = {"$q\"p", "$qm", "+q6b75", "+q436f;544e", "+qZZ", "+q434", "q#0;2;0;0;0"};
+	private static final String[] TEXTS = {"a", "hello", " ", "\u00e9", "\u6f22\u5b57", "\ud83d\ude00", "\u0301", "e\u0301",
+		"\u200b", "\u00ad", "\ufffd", "\u2500\u2502"};
+	private static final String C0_CONTROLS = "\000\001\007\b\t\n\013\014\r\016\017\030\032\033\177";
+
+	/** A single step of fuzz input: either bytes to append or, if bytes is null, a resize. */
+	static final class Step {
+		final byte[] bytes;
+		final int columns, rows;
+
+		Step(byte[] bytes) {
+			this.bytes = bytes;
+			this.columns = this.rows = 0;
+		}
+
+		Step(int columns, int rows) {
+			this.bytes = null;
+			this.columns = columns;
+			this.rows = rows;
+		}
+	}
+
+	public void testRandomInput() {
+		int seeds = Integer.getInteger("termux.fuzz.seeds", DEFAULT_SEEDS);
+		for (long seed = 0; seed < seeds; seed++)
+			runSeed(seed);
+	}
+
+	public void testReallyLongLines() {
+		// Long runs of mixed width text wrapping over small and resized screens.
+		Random random = new Random(4711);
+		List<Step> steps = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			StringBuilder text = new StringBuilder();
+			for (int j = 0; j < 50; j++)
+				text.append(TEXTS[random.nextInt(TEXTS.length)]);
+			steps.add(new Step(text.toString().getBytes(StandardCharsets.UTF_8)));
+			if (i % 10 == 0) steps.add(new Step(2 + random.nextInt(10), 2 + random.nextInt(10)));
+		}
+		runSteps("long lines", steps, random, 3, 3, 20);
+	}
+
+	private static void runSeed(long seed) {
+		Random random = new Random(seed);
+		int columns = 2 + random.nextInt(40), rows = 2 + random.nextInt(MAX_ROWS - 1);
+		runSteps("seed " + seed, generateSteps(random), random, columns, rows, MAX_ROWS + random.nextInt(30));
+	}
+
+	private static void runSteps(String description, List<Step> steps, Random random, int columns, int rows, int transcriptRows) {
+		TerminalTestCase.MockTerminalOutput wholeOutput = new TerminalTestCase.MockTerminalOutput();
+		TerminalTestCase.MockTerminalOutput splitOutput = new TerminalTestCase.MockTerminalOutput();
+		TerminalEmulator whole = new TerminalEmulator(wholeOutput, columns, rows, transcriptRows);
+		TerminalEmulator split = new TerminalEmulator(splitOutput, columns, rows, transcriptRows);
+
+		for (int i = 0; i < steps.size(); i++) {
+			Step step = steps.get(i);
+			String where = description + ", step " + i;
+			try {
+				if (step.bytes == null) {
+					whole.resize(step.columns, step.rows);
+					split.resize(step.columns, step.rows);
+				} else {
+					whole.append(step.bytes, step.bytes.length);
+					// Feed the same bytes in random pieces, which may split escape sequences and UTF-8 sequences:
+					for (int start = 0; start < step.bytes.length; ) {
+						int length = 1 + random.nextInt(step.bytes.length - start);
+						byte[] piece = new byte[length];
+						System.arraycopy(step.bytes, start, piece, 0, length);
+						split.append(piece, length);
+						start += length;
+					}
+				}
+			} catch (RuntimeException e) {
+				AssertionError error = new AssertionError(where + ": exception for input " + describe(step));
+				error.initCause(e);
+				throw error;
+			}
+			assertInvariants(where, whole);
+			if (i % 20 == 0 || i == steps.size() - 1) {
+				assertEquals(where + ": different state when input was split", dump(whole, wholeOutput), dump(split, splitOutput));
+			}
+		}
+	}
+
+	static List<Step> generateSteps(Random random) {
+		List<Step> steps = new ArrayList<>();
+		for (int i = 0; i < STEPS_PER_SEED; i++) {
+			int kind = random.nextInt(100);
+			if (kind == 0) {
+				steps.add(new Step(2 + random.nextInt(40), 2 + random.nextInt(MAX_ROWS - 1)));
+			} else if (kind < 3) {
+				byte[] bytes = new byte[1 + random.nextInt(30)];
+				random.nextBytes(bytes);
+				steps.add(new Step(bytes));
+			} else {
+				StringBuilder input = new StringBuilder();
+				int parts = 1 + random.nextInt(6);
+				for (int j = 0; j < parts; j++)
+					appendGrammarPart(random, input);
+				steps.add(new Step(input.toString().getBytes(StandardCharsets.UTF_8)));
+			}
+		}
+		return steps;
+	}
+
+	private static void appendGrammarPart(Random random, StringBuilder input) {
+		switch (random.nextInt(10)) {
+			case 0:
+			case 1:
+			case 2:
+				input.append("\033[").append(CSI_PREFIXES[random.nextInt(CSI_PREFIXES.length)]);
+				int parameters = random.nextInt(5);
+				for (int i = 0; i < parameters; i++) {
+					if (i > 0) input.append(';');
+					if (random.nextInt(8) != 0) input.append(randomParameter(random));
+				}
+				input.append(CSI_INTERMEDIATES[random.nextInt(CSI_INTERMEDIATES.length)]);
+				input.append(CSI_FINAL_CHARS.charAt(random.nextInt(CSI_FINAL_CHARS.length())));
+				break;
+			case 3:
+				input.append('\033').append(ESC_SEQUENCES[random.nextInt(ESC_SEQUENCES.length)]);
+				break;
+			case 4:
+				input.append("\033]").append(OSC_TEXTS[random.nextInt(OSC_TEXTS.length)]).append(random.nextBoolean() ? "\007" : "\033\\");
+				break;
+			case 5:
+				input.append("\033P").append(DCS_TEXTS[random.nextInt(DCS_TEXTS.length)]).append("\033\\");
+				break;
+			case 6:
+				input.append(C0_CONTROLS.charAt(random.nextInt(C0_CONTROLS.length())));
+				break;
+			default:
+				int count = 1 + random.nextInt(3);
+				for (int i = 0; i < count; i++)
+					input.append(TEXTS[random.nextInt(TEXTS.length)]);
+				break;
+		}
+	}
+
+	private static int randomParameter(Random random) {
+		switch (random.nextInt(4)) {
+			case 0:
+				return random.nextInt(3);
+			case 1:
+				return random.nextInt(30);
+			case 2:
+				// Interesting private modes and SGR values.
+				int[] values = {1, 4, 5, 6, 7, 25, 38, 47, 48, 69, 1000, 1049, 2004};
+				return values[random.nextInt(values.length)];
+			default:
+				return random.nextInt(100000);
+		}
+	}
+
+	static void assertInvariants(String where, TerminalEmulator emulator) {
+		int columns = emulator.mColumns, rows = emulator.mRows;
+		TerminalBuffer screen = emulator.getScreen();
+		assertTrue(where + ": cursor row " + emulator.getCursorRow(), emulator.getCursorRow() >= 0 && emulator.getCursorRow() < rows);
+		assertTrue(where + ": cursor column " + emulator.getCursorCol(), emulator.getCursorCol() >= 0 && emulator.getCursorCol() < columns);
+		assertEquals(where, columns, screen.mColumns);
+		assertEquals(where, rows, screen.mScreenRows);
+		assertTrue(where + ": transcript rows " + screen.getActiveTranscriptRows() + " of " + screen.mTotalRows, screen.getActiveTranscriptRows() >= 0 && screen.getActiveTranscriptRows() <= screen.mTotalRows - rows);
+
+		for (int row = -screen.getActiveTranscriptRows(); row < rows; row++) {
+			String rowWhere = where + ", row " + row;
+			TerminalRow line = screen.mLines[screen.externalToInternalRow(row)];
+			assertNotNull(rowWhere, line);
+			assertEquals(rowWhere, columns, line.mStyle.length);
+			int spaceUsed = line.getSpaceUsed();
+			assertTrue(rowWhere + ": space used " + spaceUsed, spaceUsed >= 0 && spaceUsed <= line.mText.length);
+			int width = 0;
+			for (int i = 0; i < spaceUsed; i++) {
+				char c = line.mText[i];
+				int codePoint = c;
+				if (Character.isHighSurrogate(c)) {
+					assertTrue(rowWhere + ": unpaired surrogate", i + 1 < spaceUsed && Character.isLowSurrogate(line.mText[i + 1]));
+					codePoint = Character.toCodePoint(c, line.mText[++i]);
+				} else {
+					assertFalse(rowWhere + ": unpaired surrogate", Character.isLowSurrogate(c));
+				}
+				width += Math.max(0, WcWidth.width(codePoint));
+			}
+			assertEquals(rowWhere + ": width of '" + new String(line.mText, 0, spaceUsed) + "'", columns, width);
+		}
+	}
+
+	/** A textual description of the complete emulator state, including everything written back to the output. */
+	static String dump(TerminalEmulator emulator, TerminalTestCase.MockTerminalOutput output) {
+		StringBuilder result = new StringBuilder();
+		TerminalBuffer screen = emulator.getScreen();
+		result.append(emulator.mColumns).append('x').append(emulator.mRows).append(" cursor=").append(emulator.getCursorRow()).append(',')
+			.append(emulator.getCursorCol()).append(" title=").append(emulator.getTitle()).append(" alt=")
+			.append(emulator.isAlternateBufferActive()).append(" transcript=").append(screen.getActiveTranscriptRows()).append('\n');
+		for (int row = -screen.getActiveTranscriptRows(); row < emulator.mRows; row++) {
+			TerminalRow line = screen.mLines[screen.externalToInternalRow(row)];
+			result.append(line.mText, 0, line.getSpaceUsed()).append('|').append(line.mLineWrap);
+			for (long style : line.mStyle)
+				result.append(',').append(Long.toHexString(style));
+			result.append('\n');
+		}
+		result.append("output=").append(output.getOutputAndClear()).append(" titles=").append(output.titleChanges.size())
+			.append(" clipboard=").append(output.clipboardPuts).append(" bells=").append(output.bellsRung);
+		return result.toString();
+	}
+
+	private static String describe(Step step) {
+		StringBuilder result = new StringBuilder();
+		for (char c : new String(step.bytes, StandardCharsets.UTF_8).toCharArray()) {
+			if (c < 32 || c == 127) {
+				result.append(String.format("\\u%04x", (int) c));
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/** Print a digest of the final state for each seed, e.g. "java TerminalFuzzTest 1000 > before.txt". */
+	public static void main(String[] args) {
+		int seeds = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SEEDS;
+		for (long seed = 0; seed < seeds; seed++) {
+			Random random = new Random(seed);
+			int columns = 2 + random.nextInt(40), rows = 2 + random.nextInt(MAX_ROWS - 1);
+			TerminalTestCase.MockTerminalOutput output = new TerminalTestCase.MockTerminalOutput();
+			TerminalEmulator emulator = new TerminalEmulator(output, columns, rows, MAX_ROWS + random.nextInt(30));
+			StringBuilder states = new StringBuilder();
+			String failure = "";
+			try {
+				for (Step step : generateSteps(random)) {
+					if (step.bytes == null) {
+						emulator.resize(step.columns, step.rows);
+					} else {
+						emulator.append(step.bytes, step.bytes.length);
+					}
+					states.append(dump(emulator, output).hashCode()).append(',');
+				}
+			} catch (RuntimeException e) {
+				failure = " " + e;
+			}
+			System.out.println(seed + " " + Integer.toHexString(states.toString().hashCode()) + failure);
+		}
+	}
+
+}
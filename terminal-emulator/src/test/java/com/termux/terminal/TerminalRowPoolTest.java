@@ -0,0 +1,59 @@
+package com.termux.terminal;
+
+public class TerminalRowPoolTest extends TerminalTestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		TerminalRowPool.clear();
+	}
+
+	public void testRowsReusedBySize() {
+		TerminalRow row = new TerminalRow(5, 0);
+		row.setChar(0, 'a', TextStyle.encode(1, 2, 0));
+		row.mLineWrap = true;
+		TerminalRowPool.recycleRow(row);
+		assertNotSame(row, TerminalRowPool.obtainRow(6, 0));
+
+		long style = TextStyle.encode(3, 4, 0);
+		TerminalRow reused = TerminalRowPool.obtainRow(5, style);
+		assertSame(row, reused);
+		assertEquals("     ", new String(reused.mText, 0, reused.getSpaceUsed()));
+		assertEquals(style, reused.getStyle(0));
+		assertFalse(reused.mLineWrap);
+		assertNotSame(row, TerminalRowPool.obtainRow(5, 0));
+	}
+
+	public void testTextReusedByLength() {
+		char[] text = new char[12];
+		TerminalRowPool.recycleText(text);
+		assertNotSame(text, TerminalRowPool.obtainText(13));
+		assertSame(text, TerminalRowPool.obtainText(12));
+		assertEquals(0, TerminalRowPool.clear());
+	}
+
+	public void testResizeBackReusesRows() {
+		withTerminalSized(5, 3).enterString("abc\r\ndef");
+		TerminalRow firstRow = mTerminal.getScreen().mLines[0];
+		mTerminal.resize(7, 3);
+		assertLinesAre("abc    ", "def    ", "       ");
+		mTerminal.resize(5, 3);
+		assertLinesAre("abc  ", "def  ", "     ");
+		boolean reused = false;
+		for (TerminalRow row : mTerminal.getScreen().mLines)
+			if (row == firstRow) reused = true;
+		assertTrue(reused);
+		assertInvariants();
+	}
+
+	public void testWideCharactersGrowingText() {
+		withTerminalSized(4, 2);
+		TerminalRow row = mTerminal.getScreen().mLines[0];
+		char[] text = row.mText;
+		// Characters outside the basic multilingual plane use two java chars, which the row grows to hold:
+		enterString("\uD835\uDC00\uD835\uDC00\uD835\uDC00\uD835\uDC00");
+		assertNotSame(text, row.mText);
+		assertSame(text, TerminalRowPool.obtainText(text.length));
+	}
+
+}
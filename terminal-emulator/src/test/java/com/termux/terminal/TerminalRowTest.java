@@ -59,6 +59,15 @@ public class TerminalRowTest extends TestCase {
 		assertLineStartsWith(' ', DIARESIS_CODEPOINT, DIARESIS_CODEPOINT, ' ');
 	}
 
+	public void testTooManyCombiningCharacters() {
+		for (int i = 0; i < 100000; i++)
+			row.setChar(0, DIARESIS_CODEPOINT, 0);
+		assertTrue(row.getSpaceUsed() < 100);
+		assertLineStartsWith(' ', DIARESIS_CODEPOINT, DIARESIS_CODEPOINT);
+		row.setChar(1, 'a', 0);
+		assertEquals('a', row.mText[row.findStartOfColumn(1)]);
+	}
+
 	public void testStaticConstants() {
 		assertEquals(1, Character.charCount(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1));
 		assertEquals(1, Character.charCount(ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2));
@@ -416,6 +425,52 @@ public class TerminalRowTest extends TestCase {
 		assertLineStartsWith(0x006E, 0x0303, ' ');
 	}
 
+	public void testFill() {
+		row.fill(2, 5, 'x', 1);
+		assertLineStartsWith(' ', ' ', 'x', 'x', 'x', ' ');
+		assertEquals(1, row.getStyle(4));
+		assertEquals(TextStyle.NORMAL, row.getStyle(5));
+		assertEquals(COLUMNS, row.getSpaceUsed());
+
+		// Filling a range next to a wide character replaces both of its halves:
+		row.setChar(6, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.fill(7, COLUMNS, ' ', 2);
+		assertLineStartsWith(' ', ' ', 'x', 'x', 'x', ' ', ' ', ' ');
+		assertEquals(2, row.getStyle(COLUMNS - 1));
+		assertEquals(COLUMNS, row.getSpaceUsed());
+
+		// Filling the whole row removes any combining and surrogate characters:
+		row.setChar(0, DIARESIS_CODEPOINT, 0);
+		row.setChar(1, TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, 0);
+		row.fill(0, COLUMNS, 'y', 3);
+		assertEquals(COLUMNS, row.getSpaceUsed());
+		assertLineStartsWith('y', 'y', 'y');
+		assertEquals(3, row.getStyle(0));
+	}
+
+	public void testFillSameAsSetChar() {
+		Random random = new Random(7);
+		int[] codePoints = {'a', ' ', DIARESIS_CODEPOINT, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1};
+		for (int i = 0; i < 1000; i++) {
+			TerminalRow expected = new TerminalRow(10, 0);
+			TerminalRow actual = new TerminalRow(10, 0);
+			for (int j = random.nextInt(5); j > 0; j--) {
+				int column = random.nextInt(9);
+				int codePoint = codePoints[random.nextInt(codePoints.length)];
+				expected.setChar(column, codePoint, j);
+				actual.setChar(column, codePoint, j);
+			}
+			int start = random.nextInt(10);
+			int end = start + random.nextInt(11 - start);
+			int codePoint = random.nextBoolean() ? ' ' : 'E';
+			for (int column = start; column < end; column++)
+				expected.setChar(column, codePoint, 9);
+			actual.fill(start, end, codePoint, 9);
+			assertEquals(new String(expected.mText, 0, expected.getSpaceUsed()), new String(actual.mText, 0, actual.getSpaceUsed()));
+			assertTrue(Arrays.equals(expected.mStyle, actual.mStyle));
+		}
+	}
+
 	public void testInsertWideAtLastColumn() {
 		row.setChar(COLUMNS - 2, 'Z', 0);
 		row.setChar(COLUMNS - 1, 'a', 0);
@@ -128,6 +128,13 @@ public class TerminalTest extends TerminalTestCase {
 		assertEquals("hi", mOutput.getOutputAndClear());
 	}
 
+	public void testPasteFilteredAndEncoded() {
+		withTerminalSized(5, 5);
+		// Escape and C1 controls are removed, other text is encoded as UTF-8 with unpaired surrogates replaced:
+		mTerminal.paste("a\u001b[1m\u0085\u00e5\u4e2d\ud83d\ude00\ud83d!");
+		assertEquals("a[1m\u00e5\u4e2d\ud83d\ude00?!", mOutput.getOutputAndClear());
+	}
+
 	public void testSelectGraphics() {
 		withTerminalSized(5, 5);
 		enterString("\033[31m");
@@ -186,6 +193,25 @@ public class TerminalTest extends TerminalTestCase {
         assertEquals(expectedBackground, mTerminal.mBackColor);
     }
 
+	public void testWrittenCellsUseCurrentStyle() {
+		withTerminalSized(5, 2);
+		enterString("\033[31;1ma\0337\033[0;48;2;1;2;3mb\0338\033[1Cc\033[1\"qd");
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(0, 0)));
+		assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD, TextStyle.decodeEffect(getStyleAt(0, 0)));
+		assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(getStyleAt(0, 1)));
+		assertEquals(0xff010203, TextStyle.decodeBackColor(getStyleAt(0, 1)));
+		// Restoring the cursor restores the style:
+		assertEquals(1, TextStyle.decodeForeColor(getStyleAt(0, 2)));
+		assertEquals(TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.decodeBackColor(getStyleAt(0, 2)));
+		// DECSCA marks the following characters as protected:
+		assertEquals(TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_PROTECTED, TextStyle.decodeEffect(getStyleAt(0, 3)));
+		// Resetting the terminal resets the colors:
+		mTerminal.reset();
+		enterString("\033[2;1He");
+		assertEquals(TextStyle.COLOR_INDEX_FOREGROUND, TextStyle.decodeForeColor(getStyleAt(1, 0)));
+		assertEquals(TextStyle.COLOR_INDEX_BACKGROUND, TextStyle.decodeBackColor(getStyleAt(1, 0)));
+	}
+
 	public void testBackgroundColorErase() {
 		final int rows = 3;
 		final int cols = 3;
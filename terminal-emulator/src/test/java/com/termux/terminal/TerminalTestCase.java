@@ -169,7 +169,8 @@ public abstract class TerminalTestCase extends TestCase {
 					screen.mColumns, currentColumn);
 		}
 
-		assertEquals("The alt buffer should have have no history", mTerminal.mAltBuffer.mTotalRows, mTerminal.mAltBuffer.mScreenRows);
+		if (mTerminal.mAltBuffer != null)
+			assertEquals("The alt buffer should have have no history", mTerminal.mAltBuffer.mTotalRows, mTerminal.mAltBuffer.mScreenRows);
 		if (mTerminal.isAlternateBufferActive()) {
 			assertEquals("The alt buffer should be the same size as the screen", mTerminal.mRows, mTerminal.mAltBuffer.mTotalRows);
 		}
@@ -6,6 +6,8 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
@@ -31,6 +33,7 @@ import android.widget.Scroller;
 
 import com.termux.terminal.EmulatorDebug;
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.SessionMetrics;
 import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
@@ -41,6 +44,12 @@ public final class TerminalView extends View {
     /** Log view key and IME events. */
     private static final boolean LOG_KEY_EVENTS = false;
 
+    /**
+     * How long to wait after the last size change before resizing the session, so that a burst of size changes (such as
+     * during split-screen or soft keyboard animations) results in a single reflow and SIGWINCH.
+     */
+    private static final int RESIZE_DEBOUNCE_MILLIS = 100;
+
     /** The currently displayed terminal session, whose emulator is {@link #mEmulator}. */
     TerminalSession mTermSession;
     /** Our terminal emulator whose session is {@link #mTermSession}. */
@@ -75,6 +84,22 @@ public final class TerminalView extends View {
     /** If non-zero, this is the last unicode code point received if that was a combining character. */
     int mCombiningAccent;
 
+    /** The size to apply to the session when {@link #mResizeRunnable} runs. */
+    int mPendingColumns, mPendingRows;
+
+    /** If showing the metrics overlay, see {@link #setShowMetrics(boolean)}. */
+    private boolean mShowMetrics;
+    /** For drawing the metrics overlay, created when first shown. */
+    private Paint mMetricsPaint;
+
+    /** Resizes the session to the latest size, see {@link #updateSize()}. */
+    private final Runnable mResizeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            resizeSession(mPendingColumns, mPendingRows);
+        }
+    };
+
     public TerminalView(Context context, AttributeSet attributes) { // NO_UCD (unused code)
         super(context, attributes);
         mGestureRecognizer = new GestureAndScaleRecognizer(context, new GestureAndScaleRecognizer.Listener() {
@@ -215,10 +240,12 @@ public final class TerminalView extends View {
     public boolean attachSession(TerminalSession session) {
         if (session == mTermSession) return false;
         mTopRow = 0;
+        removeCallbacks(mResizeRunnable);
 
         mTermSession = session;
         mEmulator = null;
         mCombiningAccent = 0;
+        if (mShowMetrics) session.setMetricsEnabled(true);
 
         updateSize();
 
@@ -734,7 +761,13 @@ public final class TerminalView extends View {
         updateSize();
     }
 
-    /** Check if the terminal size in rows and columns should be updated. */
+    /**
+     * Check if the terminal size in rows and columns should be updated.
+     * <p>
+     * The first size is applied at once to start the session, while later changes are coalesced and only applied
+     * {@link #RESIZE_DEBOUNCE_MILLIS} after the size has settled. Until then the current screen is drawn clipped to the
+     * new view bounds.
+     */
     public void updateSize() {
         int viewWidth = getWidth();
         int viewHeight = getHeight();
@@ -744,22 +777,40 @@ public final class TerminalView extends View {
         int newColumns = Math.max(4, (int) (viewWidth / mRenderer.mFontWidth));
         int newRows = Math.max(4, (viewHeight - mRenderer.mFontLineSpacingAndAscent) / mRenderer.mFontLineSpacing);
 
-        if (mEmulator == null || (newColumns != mEmulator.mColumns || newRows != mEmulator.mRows)) {
-            mTermSession.updateSize(newColumns, newRows);
-            mEmulator = mTermSession.getEmulator();
-
-            mTopRow = 0;
-            scrollTo(0, 0);
+        removeCallbacks(mResizeRunnable);
+        if (mEmulator == null) {
+            resizeSession(newColumns, newRows);
+        } else if (newColumns != mEmulator.mColumns || newRows != mEmulator.mRows) {
+            mPendingColumns = newColumns;
+            mPendingRows = newRows;
+            postDelayed(mResizeRunnable, RESIZE_DEBOUNCE_MILLIS);
             invalidate();
         }
     }
 
+    /** Inform the session about a new size, which reflows the emulator and notifies the pty. */
+    void resizeSession(int columns, int rows) {
+        if (mTermSession == null) return;
+        mTermSession.updateSize(columns, rows);
+        mEmulator = mTermSession.getEmulator();
+
+        mTopRow = 0;
+        scrollTo(0, 0);
+        invalidate();
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         if (mEmulator == null) {
             canvas.drawColor(0XFF000000);
         } else {
+            SessionMetrics metrics = mTermSession.getMetrics();
+            long renderStartNanos = (metrics == null) ? 0 : System.nanoTime();
             mRenderer.render(mEmulator, canvas, mTopRow, mSelY1, mSelY2, mSelX1, mSelX2);
+            if (metrics != null) {
+                metrics.recordFrame(System.nanoTime() - renderStartNanos);
+                if (mShowMetrics) drawMetrics(canvas, metrics);
+            }
 
             if (mIsSelectingText) {
                 final int gripHandleWidth = mLeftSelectionHandle.getIntrinsicWidth();
@@ -778,6 +829,39 @@ public final class TerminalView extends View {
         }
     }
 
+    /**
+     * Show an overlay with the {@link SessionMetrics} of the attached session, which enables collecting metrics for
+     * each session attached while shown. Hiding the overlay disables them for the currently attached session.
+     */
+    public void setShowMetrics(boolean show) {
+        if (show == mShowMetrics) return;
+        mShowMetrics = show;
+        if (mTermSession != null) mTermSession.setMetricsEnabled(show);
+        invalidate();
+    }
+
+    private void drawMetrics(Canvas canvas, SessionMetrics metrics) {
+        if (mMetricsPaint == null) {
+            mMetricsPaint = new Paint();
+            mMetricsPaint.setTypeface(Typeface.MONOSPACE);
+            mMetricsPaint.setAntiAlias(true);
+            mMetricsPaint.setTextSize(10 * getResources().getDisplayMetrics().scaledDensity);
+        }
+        String[] lines = metrics.toString().split("\n");
+        float lineHeight = mMetricsPaint.getFontSpacing();
+        float width = 0;
+        for (String line : lines)
+            width = Math.max(width, mMetricsPaint.measureText(line));
+        float padding = lineHeight / 4;
+        float left = getWidth() - width - 2 * padding;
+
+        mMetricsPaint.setColor(0xA0000000);
+        canvas.drawRect(left, 0, getWidth(), lines.length * lineHeight + 2 * padding, mMetricsPaint);
+        mMetricsPaint.setColor(Color.YELLOW);
+        for (int i = 0; i < lines.length; i++)
+            canvas.drawText(lines[i], left + padding, padding + i * lineHeight - mMetricsPaint.ascent(), mMetricsPaint);
+    }
+
     /** Toggle text selection mode in the view. */
     @TargetApi(23)
     public void toggleSelectingText(MotionEvent ev) {